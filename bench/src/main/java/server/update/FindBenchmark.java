@@ -0,0 +1,47 @@
+package server.update;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Local FIND, the path every customer search and every remote FIND ends up in.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Ddvrms.persist=false")
+public class FindBenchmark {
+
+    @Param({"100", "10000"})
+    int fleetSize;
+
+    private officeServer mtl;
+
+    @Setup
+    public void setup() throws Exception {
+        mtl = benchData.office("MTL");
+        benchData.addFleet(mtl, "MTL", fleetSize, 1, 100.0);
+    }
+
+    @TearDown
+    public void stop() {
+        benchData.close(mtl);
+    }
+
+    @Benchmark
+    public String findVehicleLocalOnly() {
+        return mtl.findVehicleLocalOnly("Sedan");
+    }
+}
@@ -0,0 +1,38 @@
+package server.update;
+
+import common.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Cost seen by a request thread for one server log line, with several offices logging at once.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Ddvrms.persist=false")
+@Threads(4)
+public class LoggerBenchmark {
+
+    @TearDown
+    public void drain() {
+        Logger.flush(10_000);
+    }
+
+    @Benchmark
+    public void log() {
+        Logger.log("logs/bench_logger.txt",
+                "reserveVehicle | customerID=MTLU1111, vehicleID=MTL1001, start=01022026, end=05022026 | result=SUCCESS");
+    }
+}
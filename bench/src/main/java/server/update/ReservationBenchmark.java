@@ -0,0 +1,92 @@
+package server.update;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import server.model.Reservation;
+import server.model.vehicleRecord;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// Reservation.overlaps and the per-vehicle availability check behind every reserve and waitlist step,
+// and the customer lookup behind every cancel and update, with either reservation store.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Ddvrms.persist=false")
+public class ReservationBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    int reservations;
+
+    @Param({"heap", "compact"})
+    String store;
+
+    private vehicleRecord vehicle;
+    private Reservation booked;
+    private int[][] queries;
+    private String[] customers;
+    private int next;
+
+    @Setup
+    public void setup() {
+        SplittableRandom rnd = new SplittableRandom(42);
+        vehicle = benchData.bookedVehicle("MTL100000", reservations, rnd, store);
+        booked = new Reservation("MTLU1111", benchData.BASE_DAY + 100, benchData.BASE_DAY + 104);
+        queries = new int[1024][];
+        for (int i = 0; i < queries.length; i++) queries[i] = benchData.randomRange(rnd);
+        customers = new String[queries.length];
+        for (int i = 0; i < customers.length; i++) customers[i] = "MTLU" + (1000 + rnd.nextInt(9000));
+    }
+
+    private int[] nextQuery() {
+        int[] q = queries[next];
+        next = (next + 1) & (queries.length - 1);
+        return q;
+    }
+
+    @Benchmark
+    public boolean overlaps() {
+        int[] q = nextQuery();
+        return booked.overlaps(q[0], q[1]);
+    }
+
+    @Benchmark
+    public int countOverlapping() {
+        int[] q = nextQuery();
+        return officeServer.countOverlapping(vehicle, q[0], q[1]);
+    }
+
+    // the same question through the optimistic read path that FIND and fail-fast reserves use
+    @Benchmark
+    public boolean hasRoom() {
+        int[] q = nextQuery();
+        return vehicle.hasRoom(q[0], q[1]);
+    }
+
+    // a customer's earliest reservation, as cancel and update look it up
+    @Benchmark
+    public Reservation reservationOf() {
+        String c = customers[next];
+        next = (next + 1) & (customers.length - 1);
+        return vehicle.reservationOf(c);
+    }
+
+    // free units day by day over the range, as findAvailable reports them
+    @Benchmark
+    public vehicleRecord.Availability availability() {
+        int[] q = nextQuery();
+        return vehicle.availability(q[0], q[1]);
+    }
+}
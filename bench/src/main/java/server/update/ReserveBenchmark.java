@@ -0,0 +1,80 @@
+package server.update;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import server.model.Reservation;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// The full reserveVehicle path through the DVRMS interface, locally and across offices over UDP.
+// Every booking is cancelled again in the same invocation so capacity, budget and the
+// one-vehicle-per-remote-office rule stay the same from one invocation to the next.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Ddvrms.persist=false")
+public class ReserveBenchmark {
+
+    @Param({"100", "10000"})
+    int fleetSize;
+
+    @Param({"0", "1000"})
+    int reservations;
+
+    private officeServer mtl, wpg, bnf;
+
+    @Setup
+    public void setup() throws Exception {
+        mtl = benchData.office("MTL");
+        wpg = benchData.office("WPG");
+        bnf = benchData.office("BNF");
+
+        // price 0 and spare units, so bookings made during setup never run out of budget or capacity
+        benchData.addFleet(mtl, "MTL", fleetSize, reservations + 10, 0.0);
+        benchData.addFleet(wpg, "WPG", fleetSize, reservations + 10, 0.0);
+
+        SplittableRandom rnd = new SplittableRandom(3);
+        for (int i = 0; i < reservations; i++) {
+            int[] r = benchData.randomRange(rnd);
+            mtl.reserveVehicleLocalOnly("MTLU" + (2000 + i), benchData.vehicleID("MTL", 0), r[0], r[1], false);
+            wpg.reserveVehicleLocalOnly("MTLU" + (2000 + i), benchData.vehicleID("WPG", 0), r[0], r[1], false);
+        }
+    }
+
+    @TearDown
+    public void stop() {
+        benchData.close(mtl, wpg, bnf);
+    }
+
+    private static final String START = Reservation.formatDay(benchData.BASE_DAY + 40);
+    private static final String END = Reservation.formatDay(benchData.BASE_DAY + 43);
+
+    @Benchmark
+    public String reserveLocal() throws Exception {
+        String vehicleID = benchData.vehicleID("MTL", 0);
+        String r = mtl.reserveVehicle("MTLU1111", vehicleID, START, END, false);
+        mtl.cancelReservation("MTLU1111", vehicleID);
+        return r;
+    }
+
+    @Benchmark
+    public String reserveCrossOffice() throws Exception {
+        String vehicleID = benchData.vehicleID("WPG", 0);
+        String r = mtl.reserveVehicle("MTLU1111", vehicleID, START, END, false);
+        mtl.cancelReservation("MTLU1111", vehicleID);
+        return r;
+    }
+}
@@ -0,0 +1,71 @@
+package server.update;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import server.model.WaitingList;
+import server.model.vehicleRecord;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// Draining a waitlist after capacity frees up: each invocation starts from a freshly booked vehicle
+// whose quantity was just raised, so part of the queue can be assigned.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Ddvrms.persist=false")
+public class WaitlistBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    int reservations;
+
+    @Param({"10", "100"})
+    int waiters;
+
+    private officeServer mtl;
+    private vehicleRecord vehicle;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        mtl = benchData.office("MTL");
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        benchData.close(mtl);
+    }
+
+    @Setup(Level.Invocation)
+    public void fill() {
+        SplittableRandom rnd = new SplittableRandom(7);
+        vehicle = benchData.bookedVehicle("MTL100000", reservations, rnd);
+        for (int i = 0; i < waiters; i++) {
+            int[] r = benchData.randomRange(rnd);
+            vehicle.waitlist.add(new WaitingList("MTLU" + (1000 + i), r[0], r[1]));
+        }
+        vehicle.vehicleNumber += waiters / 2;
+    }
+
+    @Benchmark
+    public int tryAssignFromWaitlist() {
+        vehicle.lock.lock();
+        try {
+            return mtl.tryAssignFromWaitlist(vehicle);
+        } finally {
+            vehicle.lock.unlock();
+        }
+    }
+}
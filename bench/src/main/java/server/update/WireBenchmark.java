@@ -0,0 +1,50 @@
+package server.update;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// One RESERVE request through the inter-office codec: binary wireCodec against the legacy text format.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Ddvrms.persist=false")
+public class WireBenchmark {
+
+    private wireCodec.Reserve request;
+    private ByteBuffer out;
+    private long id;
+
+    @Setup
+    public void setup() {
+        request = new wireCodec.Reserve("MTLU1111", "WPG2001", benchData.BASE_DAY + 10, benchData.BASE_DAY + 14, true);
+        out = ByteBuffer.allocateDirect(4096);
+    }
+
+    @Benchmark
+    public Object binaryRoundTrip() {
+        out.clear();
+        wireCodec.encode(++id, request, out);
+        out.flip();
+        return wireCodec.decode(out);
+    }
+
+    @Benchmark
+    public Object textRoundTrip() {
+        byte[] bytes = wireCodec.toText(++id, request).getBytes(StandardCharsets.UTF_8);
+        return wireCodec.fromText(new String(bytes, StandardCharsets.UTF_8).trim(), false);
+    }
+}
@@ -0,0 +1,63 @@
+package server.update;
+
+import server.model.Reservation;
+import server.model.ReservationStore;
+import server.model.vehicleRecord;
+
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.SplittableRandom;
+
+// Shared fixtures for the benchmarks: in-process offices and randomly booked vehicles.
+final class benchData {
+    private benchData() {}
+
+    static final int BASE_DAY = Reservation.parseDay("01012026");
+    static final int SPAN_DAYS = 365;
+    static final String[] TYPES = {"Sedan", "SUV", "Truck", "Van", "Coupe", "Hatchback", "Minivan", "Pickup", "Wagon", "Convertible"};
+
+    static officeServer office(String code) throws RemoteException {
+        return new officeServer(code);
+    }
+
+    static void close(officeServer... offices) {
+        for (officeServer o : offices) {
+            try {
+                UnicastRemoteObject.unexportObject(o, true);
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    // a bookable range of 1-7 days somewhere in 2026
+    static int[] randomRange(SplittableRandom rnd) {
+        int start = BASE_DAY + rnd.nextInt(SPAN_DAYS);
+        return new int[]{start, start + rnd.nextInt(7)};
+    }
+
+    // a vehicle with enough units that all the generated bookings fit
+    static vehicleRecord bookedVehicle(String vehicleID, int reservations, SplittableRandom rnd) {
+        return bookedVehicle(vehicleID, reservations, rnd, ReservationStore.KIND);
+    }
+
+    static vehicleRecord bookedVehicle(String vehicleID, int reservations, SplittableRandom rnd, String store) {
+        vehicleRecord v = new vehicleRecord(vehicleID, "Sedan", Math.max(1, reservations), 0.0, null,
+                ReservationStore.create(store));
+        for (int i = 0; i < reservations; i++) {
+            int[] r = randomRange(rnd);
+            v.addReservation(new Reservation("MTLU" + (1000 + i % 9000), r[0], r[1]));
+        }
+        return v;
+    }
+
+    // adds the fleet through the manager API, spread evenly over the types
+    static void addFleet(officeServer o, String code, int fleetSize, int quantity, double price) throws RemoteException {
+        for (int i = 0; i < fleetSize; i++) {
+            o.addVehicle(code + "M0001", quantity, TYPES[i % TYPES.length], vehicleID(code, i), price);
+        }
+    }
+
+    static String vehicleID(String code, int i) {
+        return code + (100000 + i);
+    }
+}
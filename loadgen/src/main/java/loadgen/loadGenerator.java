@@ -0,0 +1,430 @@
+package loadgen;
+
+import common.DVRMS;
+import common.Topology;
+import server.metrics.Histogram;
+import server.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.rmi.RemoteException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Drives every office of the topology with concurrent customers and managers over RMI, so the
+// cross-office calls go over the offices' real UDP links, then checks the state they left behind.
+//
+//   java -Ddvrms.load.customers=60 -Ddvrms.load.crossOffice=0.5 -jar loadgen/target/loadgen.jar
+//
+// Start the offices first (server.update.serverMain), or let dvrms.load.inProcess start them here.
+// The run sets up its own vehicles (IDs <office>5000 and up) and users (IDs ...7000 and up), so
+// point it at fresh offices: leftovers of an earlier run add to the quantities.
+//
+// Reported: calls per second and p50/p99/p99.9 latency per call, outcomes, and the invariants
+//   overbooking    more reservations on some day than the vehicle's quantity
+//   budget         a customer's budget below zero
+//   remote limit   more than one vehicle booked at an office other than the customer's own
+// The exit status is 1 when any invariant is broken.
+//
+// Tuning (system properties):
+//   dvrms.load.customers      customers, spread over the offices (default 30)
+//   dvrms.load.managers       managers per office (default 1)
+//   dvrms.load.seconds        measured run (default 30)
+//   dvrms.load.warmupSeconds  load before measuring starts, not reported (default 5)
+//   dvrms.load.vehicles       vehicles set up per office (default 50)
+//   dvrms.load.zipf           popularity skew of the vehicles, 0 = uniform (default 0.99)
+//   dvrms.load.crossOffice    share of bookings made at another office (default 0.2)
+//   dvrms.load.mix            weights of the customer calls (default reserve=40,update=15,cancel=20,find=20,available=5)
+//   dvrms.load.thinkMillis    pause between two calls of a customer (default 0)
+//   dvrms.load.managerThinkMillis  pause between two calls of a manager (default 100)
+//   dvrms.load.seed           random seed (default 42)
+//   dvrms.load.inProcess      start all offices of the topology in this JVM first (default false)
+//   dvrms.load.report         also write the report to this file
+public class loadGenerator {
+    private static final int CUSTOMERS = Integer.getInteger("dvrms.load.customers", 30);
+    private static final int MANAGERS = Integer.getInteger("dvrms.load.managers", 1);
+    private static final int SECONDS = Integer.getInteger("dvrms.load.seconds", 30);
+    private static final int WARMUP_SECONDS = Integer.getInteger("dvrms.load.warmupSeconds", 5);
+    private static final int VEHICLES = Integer.getInteger("dvrms.load.vehicles", 50);
+    private static final double ZIPF = Double.parseDouble(System.getProperty("dvrms.load.zipf", "0.99"));
+    private static final double CROSS_OFFICE = Double.parseDouble(System.getProperty("dvrms.load.crossOffice", "0.2"));
+    private static final String MIX = System.getProperty("dvrms.load.mix", "reserve=40,update=15,cancel=20,find=20,available=5");
+    private static final long THINK_MILLIS = Long.getLong("dvrms.load.thinkMillis", 0);
+    private static final long MANAGER_THINK_MILLIS = Long.getLong("dvrms.load.managerThinkMillis", 100);
+    private static final long SEED = Long.getLong("dvrms.load.seed", 42);
+
+    private static final String[] TYPES = {"Sedan", "SUV", "Truck"};
+    // bookings fall in a 60 day window, 1 to 5 days long
+    private static final LocalDate FIRST_DAY = LocalDate.of(2030, 1, 1);
+    private static final int WINDOW_DAYS = 60;
+    private static final int MAX_DAYS = 5;
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("ddMMuuuu");
+
+    private record Vehicle(String id, String type, int quantity, double price) {
+    }
+
+    private record Booking(String vehicleID, int startDay, int endDay) {
+    }
+
+    private static final class OpStats {
+        final Histogram latency = new Histogram();
+        final LongAdder ok = new LongAdder();
+        final LongAdder fail = new LongAdder();
+        final LongAdder error = new LongAdder();
+    }
+
+    private final List<String> offices;
+    private final Map<String, DVRMS> stubs = new HashMap<>();
+    private final Map<String, List<Vehicle>> fleets = new HashMap<>();
+    private final zipfSampler popularity = new zipfSampler(VEHICLES, ZIPF);
+    private final String[] ops;
+    private final int[] opWeights;
+
+    private final ConcurrentHashMap<String, OpStats> stats = new ConcurrentHashMap<>();
+    // what each customer believes it holds, compared with the offices' view at the end
+    private final ConcurrentHashMap<String, Map<String, Booking>> held = new ConcurrentHashMap<>();
+    private volatile boolean running = true;
+    private volatile boolean measuring;
+
+    private loadGenerator(Topology topology) throws Exception {
+        offices = topology.codes();
+        for (String off : offices) stubs.put(off, topology.lookup(off));
+
+        Map<String, Integer> mix = new LinkedHashMap<>();
+        for (String part : MIX.split(",")) {
+            String[] kv = part.split("=");
+            mix.put(kv[0].trim().toLowerCase(Locale.ROOT), Integer.parseInt(kv[1].trim()));
+        }
+        ops = mix.keySet().toArray(new String[0]);
+        opWeights = mix.values().stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (Boolean.getBoolean("dvrms.load.inProcess")) server.update.serverMain.main(new String[0]);
+
+        loadGenerator load = new loadGenerator(Topology.get());
+        load.setUp();
+        load.run();
+        int violations = load.checkInvariants(load.report());
+        System.exit(violations == 0 ? 0 : 1);
+    }
+
+    /* ============================ Setup ============================ */
+
+    private void setUp() throws RemoteException {
+        for (String off : offices) {
+            List<Vehicle> fleet = new ArrayList<>(VEHICLES);
+            for (int i = 0; i < VEHICLES; i++) {
+                Vehicle v = new Vehicle(off + (5000 + i), TYPES[i % TYPES.length], 1 + i % 3, 10 + (i * 7) % 40);
+                String r = stubs.get(off).addVehicle(managerID(off, 0), v.quantity(), v.type(), v.id(), v.price());
+                if (!r.contains("successfully")) throw new IllegalStateException("Setup of " + v.id() + " failed: " + r);
+                fleet.add(v);
+            }
+            fleets.put(off, fleet);
+        }
+        System.out.println("Set up " + VEHICLES + " vehicles in each of " + offices);
+    }
+
+    private static String managerID(String office, int i) {
+        return office + "M" + (7000 + i);
+    }
+
+    private String customerID(int i) {
+        return offices.get(i % offices.size()) + "U" + (7000 + i);
+    }
+
+    /* ============================ Load ============================ */
+
+    private void run() throws InterruptedException {
+        ExecutorService users = Executors.newFixedThreadPool(CUSTOMERS + MANAGERS * offices.size());
+        SplittableRandom seeds = new SplittableRandom(SEED);
+        for (int i = 0; i < CUSTOMERS; i++) {
+            String customerID = customerID(i);
+            SplittableRandom rnd = seeds.split();
+            users.submit(() -> customer(customerID, rnd));
+        }
+        for (String off : offices) {
+            for (int i = 0; i < MANAGERS; i++) {
+                String managerID = managerID(off, i);
+                SplittableRandom rnd = seeds.split();
+                users.submit(() -> manager(managerID, off, rnd));
+            }
+        }
+
+        System.out.println("Warming up for " + WARMUP_SECONDS + "s with " + CUSTOMERS + " customers and "
+                + MANAGERS * offices.size() + " managers");
+        Thread.sleep(TimeUnit.SECONDS.toMillis(WARMUP_SECONDS));
+        measuring = true;
+        System.out.println("Measuring for " + SECONDS + "s");
+        Thread.sleep(TimeUnit.SECONDS.toMillis(SECONDS));
+        measuring = false;
+        running = false;
+
+        users.shutdown();
+        if (!users.awaitTermination(1, TimeUnit.MINUTES)) System.out.println("Some users are still stuck in a call");
+    }
+
+    private void customer(String customerID, SplittableRandom rnd) {
+        String home = customerID.substring(0, 3);
+        DVRMS stub = stubs.get(home);
+        Map<String, Booking> mine = new HashMap<>();
+        held.put(customerID, mine);
+
+        while (running) {
+            String op = pickOp(rnd);
+            if ((op.equals("update") || op.equals("cancel")) && mine.isEmpty()) op = "reserve";
+
+            switch (op) {
+                case "reserve" -> {
+                    Vehicle v = pickVehicle(home, rnd);
+                    if (mine.containsKey(v.id())) {
+                        cancel(stub, customerID, v.id(), mine); // churn: give the busy one back instead
+                        break;
+                    }
+                    int[] days = pickDays(rnd);
+                    String r = call(op, () -> stub.reserveVehicle(customerID, v.id(), date(days[0]), date(days[1]), false));
+                    if (isSuccess(r)) mine.put(v.id(), new Booking(v.id(), days[0], days[1]));
+                }
+                case "update" -> {
+                    Booking b = pickHeld(mine, rnd);
+                    int[] days = pickDays(rnd);
+                    String r = call(op, () -> stub.updateReservation(customerID, b.vehicleID(), date(days[0]), date(days[1])));
+                    if (isSuccess(r)) mine.put(b.vehicleID(), new Booking(b.vehicleID(), days[0], days[1]));
+                }
+                case "cancel" -> cancel(stub, customerID, pickHeld(mine, rnd).vehicleID(), mine);
+                case "find" -> call(op, () -> stub.findVehicle(customerID, TYPES[rnd.nextInt(TYPES.length)]));
+                case "available" -> {
+                    int[] days = pickDays(rnd);
+                    call(op, () -> stub.findAvailable(customerID, TYPES[rnd.nextInt(TYPES.length)], date(days[0]), date(days[1])));
+                }
+                case "list" -> call(op, () -> stub.listReservations(customerID));
+                case "budget" -> call(op, () -> stub.getBudget(customerID));
+                default -> throw new IllegalArgumentException("Unknown call in dvrms.load.mix: " + op);
+            }
+            pause(THINK_MILLIS);
+        }
+    }
+
+    private void cancel(DVRMS stub, String customerID, String vehicleID, Map<String, Booking> mine) {
+        String r = call("cancel", () -> stub.cancelReservation(customerID, vehicleID));
+        if (isSuccess(r)) mine.remove(vehicleID);
+    }
+
+    // managers re-save a popular vehicle unchanged (same lock, journal, waitlist and peer
+    // announcement as a real change, without moving capacity under the customers) or list the office
+    private void manager(String managerID, String office, SplittableRandom rnd) {
+        DVRMS stub = stubs.get(office);
+        List<Vehicle> fleet = fleets.get(office);
+        while (running) {
+            if (rnd.nextInt(4) == 0) {
+                Vehicle v = fleet.get(popularity.next(rnd));
+                call("addVehicle", () -> stub.addVehicle(managerID, 0, v.type(), v.id(), v.price()));
+            } else {
+                call("listAvailableVehicle", () -> stub.listAvailableVehicle(managerID));
+            }
+            pause(MANAGER_THINK_MILLIS);
+        }
+    }
+
+    private String pickOp(SplittableRandom rnd) {
+        int total = 0;
+        for (int w : opWeights) total += w;
+        int x = rnd.nextInt(total);
+        for (int i = 0; i < ops.length; i++) {
+            x -= opWeights[i];
+            if (x < 0) return ops[i];
+        }
+        return ops[ops.length - 1];
+    }
+
+    private Vehicle pickVehicle(String home, SplittableRandom rnd) {
+        String off = home;
+        if (offices.size() > 1 && rnd.nextDouble() < CROSS_OFFICE) {
+            do off = offices.get(rnd.nextInt(offices.size())); while (off.equals(home));
+        }
+        return fleets.get(off).get(popularity.next(rnd));
+    }
+
+    private static Booking pickHeld(Map<String, Booking> mine, SplittableRandom rnd) {
+        int i = rnd.nextInt(mine.size());
+        for (Booking b : mine.values()) if (i-- == 0) return b;
+        throw new IllegalStateException();
+    }
+
+    private static int[] pickDays(SplittableRandom rnd) {
+        int start = rnd.nextInt(WINDOW_DAYS);
+        return new int[]{start, start + rnd.nextInt(MAX_DAYS)};
+    }
+
+    private static String date(int day) {
+        return FIRST_DAY.plusDays(day).format(DATE);
+    }
+
+    private static boolean isSuccess(String r) {
+        return r != null && (r.startsWith("SUCCESS") || r.contains("successfully"));
+    }
+
+    // the call's result, or null when it threw; timed and counted once measuring has begun
+    private String call(String op, Callable<String> fn) {
+        long start = System.nanoTime();
+        String r = null;
+        try {
+            r = fn.call();
+        } catch (Exception e) {
+            // counted as an error below
+        }
+        if (!measuring) return r;
+
+        OpStats s = stats.computeIfAbsent(op, k -> new OpStats());
+        s.latency.record(System.nanoTime() - start);
+        String t = (r == null) ? "ERR" : r.strip();
+        if (t.startsWith("ERR") || t.contains("[Partial result")) s.error.increment();
+        else if (t.startsWith("FAIL") || t.startsWith("Sorry") || t.startsWith("No such")) s.fail.increment();
+        else s.ok.increment();
+        return r;
+    }
+
+    private static void pause(long millis) {
+        if (millis <= 0) return;
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /* ============================ Report ============================ */
+
+    private String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "%n# load: %d customers, %d managers, %d offices, %ds, zipf %.2f, cross-office %.2f%n",
+                CUSTOMERS, MANAGERS * offices.size(), offices.size(), SECONDS, ZIPF, CROSS_OFFICE));
+        sb.append(String.format("%-22s %9s %9s %9s %9s %9s %9s %7s %7s %7s%n",
+                "call", "calls/s", "mean", "p50", "p99", "p99.9", "max", "ok", "fail", "error"));
+
+        long total = 0;
+        for (Map.Entry<String, OpStats> e : new TreeMap<>(stats).entrySet()) {
+            OpStats s = e.getValue();
+            Histogram h = s.latency;
+            total += h.count();
+            sb.append(String.format(Locale.ROOT, "%-22s %9.1f %9s %9s %9s %9s %9s %7d %7d %7d%n", e.getKey(),
+                    h.count() / (double) SECONDS, Metrics.time((long) h.mean()), Metrics.time(h.percentile(0.50)),
+                    Metrics.time(h.percentile(0.99)), Metrics.time(h.percentile(0.999)), Metrics.time(h.max()),
+                    s.ok.sum(), s.fail.sum(), s.error.sum()));
+        }
+        sb.append(String.format(Locale.ROOT, "%-22s %9.1f%n", "all", total / (double) SECONDS));
+        return sb.toString();
+    }
+
+    /* ============================ Invariants ============================ */
+
+    // prints the report with the invariant section and returns the number of violations
+    private int checkInvariants(String load) throws IOException {
+        StringBuilder sb = new StringBuilder(load).append("\n# invariants\n");
+
+        // quantities as the managers see them
+        Map<String, Integer> quantity = new HashMap<>();
+        for (String off : offices) {
+            for (String line : stubs.get(off).listAvailableVehicle(managerID(off, 0)).split("\n")) {
+                String[] f = line.trim().split("\\s+");
+                if (f.length >= 4) quantity.put(f[0], Integer.parseInt(f[2]));
+            }
+        }
+
+        // reservations as the offices report them to their customers
+        Map<String, List<Booking>> byVehicle = new HashMap<>();
+        int negative = 0, remoteLimit = 0, unverified = 0, mismatched = 0;
+        List<String> details = new ArrayList<>();
+        for (int i = 0; i < CUSTOMERS; i++) {
+            String customerID = customerID(i);
+            String home = customerID.substring(0, 3);
+            DVRMS stub = stubs.get(home);
+
+            String listed = stub.listReservations(customerID);
+            if (listed.contains("[Partial result")) {
+                unverified++;
+                continue;
+            }
+            Map<String, Booking> server = new HashMap<>();
+            Map<String, Integer> perRemoteOffice = new HashMap<>();
+            for (String line : listed.split("\n")) {
+                String[] f = line.trim().split("\\s+");
+                if (f.length != 4 || f[1].length() != 8) continue;
+                Booking b = new Booking(f[0], day(f[1]), day(f[2]));
+                server.put(b.vehicleID(), b);
+                byVehicle.computeIfAbsent(b.vehicleID(), k -> new ArrayList<>()).add(b);
+                if (!f[3].equals(home)) perRemoteOffice.merge(f[3], 1, Integer::sum);
+            }
+            for (Map.Entry<String, Integer> e : perRemoteOffice.entrySet()) {
+                if (e.getValue() > 1) {
+                    remoteLimit++;
+                    details.add(customerID + " holds " + e.getValue() + " reservations at " + e.getKey());
+                }
+            }
+            if (!server.equals(held.getOrDefault(customerID, Map.of()))) mismatched++;
+
+            String budget = stub.getBudget(customerID);
+            double left = Double.parseDouble(budget.substring(budget.indexOf('=') + 1));
+            if (left < 0) {
+                negative++;
+                details.add(customerID + " budget " + left);
+            }
+        }
+
+        int overbooked = 0;
+        for (Map.Entry<String, List<Booking>> e : byVehicle.entrySet()) {
+            int peak = peak(e.getValue());
+            int qty = quantity.getOrDefault(e.getKey(), 0);
+            if (peak > qty) {
+                overbooked++;
+                details.add(e.getKey() + " has " + peak + " reservations on one day, quantity " + qty);
+            }
+        }
+
+        sb.append("overbooked vehicles      ").append(overbooked).append("\n");
+        sb.append("negative budgets         ").append(negative).append("\n");
+        sb.append("remote limit broken      ").append(remoteLimit).append("\n");
+        for (String d : details.subList(0, Math.min(20, details.size()))) sb.append("  ").append(d).append("\n");
+        // not violations by themselves: a call that timed out on the client may still have happened
+        sb.append("customers not verified   ").append(unverified).append(" (an office did not answer the list)\n");
+        sb.append("client view differs      ").append(mismatched).append(" (calls that failed on the client side)\n");
+
+        String report = sb.toString();
+        System.out.println(report);
+        String file = System.getProperty("dvrms.load.report");
+        if (file != null) Files.writeString(Path.of(file), report, StandardCharsets.UTF_8);
+        return overbooked + negative + remoteLimit;
+    }
+
+    private static int day(String ddMMyyyy) {
+        return (int) (LocalDate.parse(ddMMyyyy, DATE).toEpochDay() - FIRST_DAY.toEpochDay());
+    }
+
+    // most reservations on any one day
+    private static int peak(List<Booking> bookings) {
+        TreeMap<Integer, Integer> delta = new TreeMap<>();
+        for (Booking b : bookings) {
+            delta.merge(b.startDay(), 1, Integer::sum);
+            delta.merge(b.endDay() + 1, -1, Integer::sum);
+        }
+        int now = 0, peak = 0;
+        for (int d : delta.values()) peak = Math.max(peak, now += d);
+        return peak;
+    }
+}
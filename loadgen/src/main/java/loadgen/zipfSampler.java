@@ -0,0 +1,26 @@
+package loadgen;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+// Ranks 0..n-1 drawn with probability proportional to 1 / (rank + 1)^exponent:
+// rank 0 is the most popular vehicle. Exponent 0 is uniform, around 1 is the usual hot-item skew.
+// The cumulative weights are computed once; a draw is a binary search. Thread-safe.
+final class zipfSampler {
+    private final double[] cdf;
+
+    zipfSampler(int n, double exponent) {
+        cdf = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1.0 / Math.pow(i + 1, exponent);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < n; i++) cdf[i] /= sum;
+    }
+
+    int next(SplittableRandom rnd) {
+        int i = Arrays.binarySearch(cdf, rnd.nextDouble());
+        return Math.min(i < 0 ? -i - 1 : i, cdf.length - 1);
+    }
+}
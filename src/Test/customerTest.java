@@ -1,11 +1,12 @@
 package Test;
 
+import common.BookingRequest;
 import common.DVRMS;
 import common.IdCheck;
 import common.Logger;
+import common.Topology;
 
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
+import java.util.List;
 
 public class customerTest {
 
@@ -24,8 +25,8 @@ public class customerTest {
         String customerID = "MTLU1111";
         String office = IdCheck.officeLocation(customerID);
 
-        Registry reg = LocateRegistry.getRegistry("localhost", 1099);
-        DVRMS stub = (DVRMS) reg.lookup(office); // office = IdCheck.officeLocation(customerID)
+        Topology topology = Topology.get();
+        DVRMS stub = topology.lookup(office); // office = IdCheck.officeLocation(customerID)
 
         System.out.println("===== Customer Test Start =====");
         System.out.println("customerID=" + customerID + " office=" + office);
@@ -93,6 +94,9 @@ public class customerTest {
         System.out.println("\n[1] FIND Sedan across 3 offices (UDP expected)");
         System.out.println(stub.findVehicle(customerID, "Sedan"));
 
+        System.out.println("\n[1b] Free Sedans 01-10 Feb 2026 across 3 offices (UDP AVAILABLE)");
+        System.out.println(stub.findAvailable(customerID, "Sedan", "01022026", "10022026"));
+
         System.out.println("\n[2] Remote reserve WPG2001 (should succeed, UDP RESERVE)");
         System.out.println(stub.reserveVehicle(customerID, "WPG2001", "06022026", "07022026", true));
 
@@ -105,6 +109,16 @@ public class customerTest {
         System.out.println("\n[5] Remote reserve another BNF3002 (should FAIL: only 1 per remote office)");
         System.out.println(stub.reserveVehicle(customerID, "BNF3002", "12022026", "13022026", true));
 
+        System.out.println("\n[5b] Budget after remote reserves (paid at the home office)");
+        System.out.println(stub.getBudget(customerID));
+
+        System.out.println("\n[5c] Move WPG2001 to WPG2002 (same remote office, should succeed)");
+        System.out.println(stub.swapReservation(customerID, "WPG2001", "WPG2002", "08022026", "09022026"));
+
+        System.out.println("\n[5d] Move BNF3001 to MTL1002 (remote to local, should succeed)");
+        System.out.println(stub.swapReservation(customerID, "BNF3001", "MTL1002", "10022026", "11022026"));
+        System.out.println(stub.listReservations(customerID));
+
         // ------------------------------
         // waitingList test
         // ------------------------------
@@ -144,7 +158,7 @@ public class customerTest {
 
         // 3) manager addVehicle（增加数量/更新信息）-> 应触发 auto-assign
         // 注意：customerTest 里要 lookup MTL stub 作为 manager 调用 addVehicle
-        DVRMS mtlStub = (DVRMS) reg.lookup("MTL");
+        DVRMS mtlStub = topology.lookup("MTL");
         System.out.println("\n[7] Manager increases vehicleNumber for " + vehicle + " -> should auto-assign 1 from waitlist");
         System.out.println(mtlStub.addVehicle("MTLM1111", 1, "Sedan", vehicle, 130));
 
@@ -161,7 +175,7 @@ public class customerTest {
         // ------------------------------
         System.out.println("\n===== Remove Vehicle Testing =====");
 
-        DVRMS mtlStub2 = (DVRMS) reg.lookup("MTL");
+        DVRMS mtlStub2 = topology.lookup("MTL");
         String mID = "MTLM1111";
 
         System.out.println("\n[1] Manager creates vehicle " + "MTL2001");
@@ -197,6 +211,29 @@ public class customerTest {
         System.out.println("\n[3] Try reserve removed vehicle (should FAIL: no such vehicle)");
         System.out.println(stub.reserveVehicle(customerC, "MTL2001", "06062026", "07062026", true));
 
+        // ------------------------------
+        // Batch reserve / cancel
+        // ------------------------------
+        System.out.println("\n===== Batch Testing =====");
+
+        System.out.println("\n[B1] Manager adds MTL3001 and MTL3002");
+        System.out.println(mtlStub.addVehicle(mID, 1, "SUV", "MTL3001", 100));
+        System.out.println(mtlStub.addVehicle(mID, 1, "SUV", "MTL3002", 100));
+
+        System.out.println("\n[B2] D books MTL3001, MTL3002 and WPG2001 in one call; bad dates fail alone");
+        List<String> booked = stub.reserveVehicles(customerD, List.of(
+                new BookingRequest("MTL3001", "01072026", "05072026", false),
+                new BookingRequest("MTL3002", "01072026", "05072026", false),
+                new BookingRequest("WPG2001", "01072026", "05072026", false),
+                new BookingRequest("MTL3002", "31022026", "05072026", false)));
+        booked.forEach(System.out::println);
+
+        System.out.println("\n[B3] D lists its reservations (MTL3001, MTL3002, WPG2001)");
+        System.out.println(stub.listReservations(customerD));
+
+        System.out.println("\n[B4] D cancels all three in one call");
+        stub.cancelReservations(customerD, List.of("MTL3001", "MTL3002", "WPG2001")).forEach(System.out::println);
+
         System.out.println("\n===== Customer Test End =====");
     }
 }
@@ -3,9 +3,7 @@ package Test;
 import common.DVRMS;
 import common.IdCheck;
 import common.Logger;
-
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
+import common.Topology;
 
 public class managerTest {
 
@@ -20,19 +18,19 @@ public class managerTest {
         return res;
     }
 
-    private static DVRMS stubOf(Registry reg, String office) throws Exception {
-        return (DVRMS) reg.lookup(office);
+    private static DVRMS stubOf(Topology topology, String office) throws Exception {
+        return topology.lookup(office);
     }
 
     public static void main(String[] args) throws Exception {
         String managerID = "MTLM1111";
         String office = IdCheck.officeLocation(managerID);
 
-        Registry reg = LocateRegistry.getRegistry("localhost", 1099);
+        Topology topology = Topology.get();
 
-        DVRMS mtl = stubOf(reg, "MTL");
-        DVRMS wpg = stubOf(reg, "WPG");
-        DVRMS bnf = stubOf(reg, "BNF");
+        DVRMS mtl = stubOf(topology, "MTL");
+        DVRMS wpg = stubOf(topology, "WPG");
+        DVRMS bnf = stubOf(topology, "BNF");
 
         System.out.println("===== Manager Setup Start =====");
 
@@ -3,17 +3,14 @@ package client;
 import common.DVRMS;
 import common.IdCheck;
 import common.Logger;
+import common.Topology;
 
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
 import java.util.Locale;
 import java.util.Scanner;
 
 
 public class customerClient {
 
-    private static final String REG_HOST = "localhost";
-    private static final int REG_PORT = 1099;
 
     private static void log(String customerID, String msg) {
         Logger.log("logs/client_" + customerID + ".txt", msg);
@@ -33,6 +30,9 @@ public class customerClient {
         System.out.println("3) Cancel reservation");
         System.out.println("4) Find vehicles by type (across all offices)");
         System.out.println("5) Check my remaining budget");
+        System.out.println("6) List my reservations");
+        System.out.println("7) Find free vehicles by type for a period (across all offices)");
+        System.out.println("8) Move a reservation to another vehicle");
         System.out.println("9) Switch user (sign out / sign in)");
         System.out.println("0) Exit");
         System.out.println("================================================");
@@ -83,13 +83,13 @@ public class customerClient {
                 continue;
             }
             String office = IdCheck.officeLocation(customerID);
-            if (!("MTL".equals(office) || "WPG".equals(office) || "BNF".equals(office))) {
-                System.out.println("Invalid office prefix in customerID. Must start with MTL/WPG/BNF. Try again.");
+            if (!Topology.get().contains(office)) {
+                System.out.println("Invalid office prefix in customerID. Must start with "
+                        + String.join("/", Topology.get().codes()) + ". Try again.");
                 continue;
             }
 
-            Registry reg = LocateRegistry.getRegistry(REG_HOST, REG_PORT);
-            DVRMS stub = (DVRMS) reg.lookup(office);
+            DVRMS stub = Topology.get().lookup(office);
 
             s.customerID = customerID;
             s.homeOffice = office;
@@ -192,7 +192,46 @@ public class customerClient {
                         log(session.customerID, "RECV getBudget | " + resp);
                         safePrint("Remaining Budget", resp);
                     }
-                    default -> System.out.println("Unknown option. Please choose 0,1,2,3,4,5,9.");
+                    case "6" -> {
+                        log(session.customerID, "SEND listReservations");
+                        String resp = session.stub.listReservations(session.customerID);
+                        log(session.customerID, "RECV listReservations | " + resp);
+                        safePrint("My Reservations", resp);
+                    }
+                    case "7" -> {
+                        System.out.print("Vehicle type (e.g., Sedan / SUV / Truck): ");
+                        String type = sc.nextLine().trim();
+
+                        System.out.print("Start date (ddMMyyyy, e.g., 01022026): ");
+                        String start = normalizeDate(sc.nextLine());
+
+                        System.out.print("End date   (ddMMyyyy, e.g., 07022026): ");
+                        String end = normalizeDate(sc.nextLine());
+
+                        log(session.customerID, "SEND findAvailable type=" + type + " start=" + start + " end=" + end);
+                        String resp = session.stub.findAvailable(session.customerID, type, start, end);
+                        log(session.customerID, "RECV findAvailable | " + resp);
+                        safePrint("Free Vehicles", resp);
+                    }
+                    case "8" -> {
+                        System.out.print("VehicleID you reserved (e.g., MTL1001): ");
+                        String oldVehicleID = sc.nextLine().trim().toUpperCase(Locale.ROOT);
+
+                        System.out.print("New VehicleID (e.g., WPG2001): ");
+                        String newVehicleID = sc.nextLine().trim().toUpperCase(Locale.ROOT);
+
+                        System.out.print("Start date (ddMMyyyy): ");
+                        String start = normalizeDate(sc.nextLine());
+
+                        System.out.print("End date   (ddMMyyyy): ");
+                        String end = normalizeDate(sc.nextLine());
+
+                        log(session.customerID, "SEND swapReservation from=" + oldVehicleID + " to=" + newVehicleID + " start=" + start + " end=" + end);
+                        String resp = session.stub.swapReservation(session.customerID, oldVehicleID, newVehicleID, start, end);
+                        log(session.customerID, "RECV swapReservation | " + resp);
+                        safePrint("Move Reservation", resp);
+                    }
+                    default -> System.out.println("Unknown option. Please choose 0,1,2,3,4,5,6,7,8,9.");
                 }
             }
 
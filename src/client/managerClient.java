@@ -3,17 +3,13 @@ package client;
 import common.DVRMS;
 import common.IdCheck;
 import common.Logger;
+import common.Topology;
 
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
 import java.util.Locale;
 import java.util.Scanner;
 
 public class managerClient {
 
-    private static final String REG_HOST = "localhost";
-    private static final int REG_PORT = 1099;
-
     private static void log(String managerID, String msg) {
         Logger.log("logs/client_" + managerID + ".txt", msg);
     }
@@ -32,6 +28,7 @@ public class managerClient {
         System.out.println("1) Add / Update vehicle");
         System.out.println("2) Remove vehicle");
         System.out.println("3) List available vehicles (this office)");
+        System.out.println("4) Show office metrics");
         System.out.println("9) Switch manager (sign out / sign in)");
         System.out.println("0) Exit");
         System.out.println("================================================");
@@ -39,8 +36,7 @@ public class managerClient {
     }
 
     private static DVRMS connectStub(String office) throws Exception {
-        Registry reg = LocateRegistry.getRegistry(REG_HOST, REG_PORT);
-        return (DVRMS) reg.lookup(office);
+        return Topology.get().lookup(office);
     }
 
     private static String doList(DVRMS stub, String managerID) {
@@ -75,8 +71,9 @@ public class managerClient {
                 continue;
             }
             String office = IdCheck.officeLocation(id);
-            if (!("MTL".equals(office) || "WPG".equals(office) || "BNF".equals(office))) {
-                System.out.println("Invalid office prefix. Must start with MTL/WPG/BNF. Try again.");
+            if (!Topology.get().contains(office)) {
+                System.out.println("Invalid office prefix. Must start with "
+                        + String.join("/", Topology.get().codes()) + ". Try again.");
                 continue;
             }
 
@@ -157,6 +154,12 @@ public class managerClient {
                         doList(session.stub, session.managerID);
                     }
                     case "3" -> doList(session.stub, session.managerID);
+                    case "4" -> {
+                        log(session.managerID, "SEND getMetrics");
+                        String resp = session.stub.getMetrics(session.managerID);
+                        log(session.managerID, "RECV getMetrics | " + resp.lines().count() + " lines");
+                        safePrint("Office Metrics", resp);
+                    }
 
                     case "9" -> {
                         log(session.managerID, "LOGOUT");
@@ -164,7 +167,7 @@ public class managerClient {
                         session = login(sc);
                     }
 
-                    default -> System.out.println("Unknown option. Please choose 0,1,2,3,9.");
+                    default -> System.out.println("Unknown option. Please choose 0,1,2,3,4,9.");
                 }
             }
 
@@ -0,0 +1,8 @@
+package common;
+
+import java.io.Serializable;
+
+// One item of DVRMS.reserveVehicles; dates as ddMMyyyy, like reserveVehicle.
+public record BookingRequest(String vehicleID, String startDate, String endDate, boolean wantWaitlist)
+        implements Serializable {
+}
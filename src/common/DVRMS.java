@@ -2,6 +2,7 @@ package common;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 public interface DVRMS extends Remote {
 
@@ -16,9 +17,22 @@ public interface DVRMS extends Remote {
     String reserveVehicle(String customerID, String vehicleID, String startDate, String endDate, boolean wantWaitlist) throws RemoteException;
 
     String updateReservation(String customerID, String vehicleID, String startDate, String endDate) throws RemoteException;
+    // moves the reservation to another vehicle, at any office, for the given dates; the new one is booked
+    // before the old one is cancelled, so a refused move leaves the old one as it was
+    String swapReservation(String customerID, String oldVehicleID, String newVehicleID, String startDate, String endDate) throws RemoteException;
     String cancelReservation(String customerID, String vehicleID) throws RemoteException;
     String findVehicle(String customerID, String vehicleType) throws RemoteException;
+    // every office's vehicles of the type with the units still free over the range, day by day where it varies
+    String findAvailable(String customerID, String vehicleType, String startDate, String endDate) throws RemoteException;
     String getBudget(String customerID) throws RemoteException;
+    String listReservations(String customerID) throws RemoteException;
+
+    // latency, counter and gauge report of the manager's own office
+    String getMetrics(String managerID) throws RemoteException;
+
+    // batches: one result per item, in order, each what the single call would have answered
+    List<String> reserveVehicles(String customerID, List<BookingRequest> bookings) throws RemoteException;
+    List<String> cancelReservations(String customerID, List<String> vehicleIDs) throws RemoteException;
 
 
 
@@ -1,27 +1,246 @@
 package common;
 
-import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
+// Asynchronous file logger: callers drop the line into a per-file ring buffer and return,
+// one writer thread shared by all files batches lines onto a channel that stays open while the file
+// is in use. A file not logged to for dvrms.log.idleMillis is closed and its ring let go, so a client
+// JVM that logs for many users does not keep a buffer and a descriptor for each one.
+//
+// Tuning (system properties):
+//   dvrms.log.bufferSize    ring capacity per file (default 8192)
+//   dvrms.log.batchSize     max lines per write (default 256)
+//   dvrms.log.flush         IMMEDIATE = write as soon as lines arrive, BATCHED = wait for a full batch
+//                           or dvrms.log.flushMillis (default IMMEDIATE)
+//   dvrms.log.flushMillis   longest a line waits in BATCHED mode (default 200)
+//   dvrms.log.idleMillis    close a file after this long without a line (default 60000)
+//   dvrms.log.fsync         force the file to disk after every write (default false)
+//   dvrms.log.backpressure  BLOCK = wait for room when a ring is full, DROP = discard and count (default BLOCK)
 public class Logger {
     private static final DateTimeFormatter F = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final String NL = System.lineSeparator();
+    private static final String RULE = "------------------------------------------------";
 
-    public static synchronized void log(String filePath, String line) {
-        try {
-            Path p = Path.of(filePath);
-            if (p.getParent() != null) Files.createDirectories(p.getParent());
+    public enum FlushPolicy { IMMEDIATE, BATCHED }
+    public enum Backpressure { BLOCK, DROP }
 
-            try (FileWriter fw = new FileWriter(filePath, true)) {
+    private static final int BUFFER_SIZE = Integer.getInteger("dvrms.log.bufferSize", 8192);
+    private static final int BATCH_SIZE = Math.max(1, Integer.getInteger("dvrms.log.batchSize", 256));
+    private static final FlushPolicy FLUSH =
+            FlushPolicy.valueOf(System.getProperty("dvrms.log.flush", "IMMEDIATE").toUpperCase());
+    private static final long FLUSH_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(Long.getLong("dvrms.log.flushMillis", 200));
+    private static final long IDLE_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(Long.getLong("dvrms.log.idleMillis", 60_000));
+    private static final boolean FSYNC = Boolean.getBoolean("dvrms.log.fsync");
+    private static final Backpressure BACKPRESSURE =
+            Backpressure.valueOf(System.getProperty("dvrms.log.backpressure", "BLOCK").toUpperCase());
 
-                fw.write(System.lineSeparator());
-                fw.write("------------------------------------------------" + System.lineSeparator());
-                fw.write("[" + LocalDateTime.now().format(F) + "] " + line + System.lineSeparator());
+    private static final ConcurrentHashMap<String, Sink> SINKS = new ConcurrentHashMap<>();
+    private static final LongAdder DROPPED = new LongAdder();
+
+    private static final Thread WRITER = new Thread(Logger::drain, "logger-writer");
+    private static volatile boolean sleeping;
+
+    static {
+        WRITER.setDaemon(true);
+        WRITER.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(2000), "logger-shutdown"));
+    }
+
+    public static void log(String filePath, String line) {
+        Entry e = new Entry(System.currentTimeMillis(), line);
+        while (true) {
+            Sink sink = SINKS.get(filePath);
+            if (sink == null) sink = SINKS.computeIfAbsent(filePath, Sink::new);
+            // a sink retired between the lookup and here is gone from SINKS; the next lookup makes a new one
+            if (sink.offer(e)) return;
+        }
+    }
+
+    // lines waiting to be written, over all files
+    public static long queueDepth() {
+        long n = 0;
+        for (Sink s : SINKS.values()) n += s.ring.size();
+        return n;
+    }
+
+    // lines discarded under the DROP policy
+    public static long dropped() {
+        return DROPPED.sum();
+    }
+
+    // wait until every line logged before this call has been written, or the timeout passes
+    public static boolean flush(long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (Sink s : SINKS.values()) {
+            long target = s.ring.offered();
+            while (s.written < target) {
+                if (System.nanoTime() >= deadline) return false;
+                s.flushRequested = true;
+                LockSupport.unpark(WRITER);
+                LockSupport.parkNanos(100_000);
+            }
+        }
+        return true;
+    }
+
+    // the writer thread: one batch per file per pass, so a busy file cannot starve the others
+    private static void drain() {
+        while (true) {
+            long park = TimeUnit.SECONDS.toNanos(1);
+            for (Sink s : SINKS.values()) park = Math.min(park, s.service());
+            if (park <= 0) continue;
+
+            sleeping = true;
+            if (!pending()) LockSupport.parkNanos(park);
+            sleeping = false;
+        }
+    }
+
+    // checked after sleeping is set, so a line offered meanwhile is not left waiting for the timeout
+    private static boolean pending() {
+        for (Sink s : SINKS.values()) {
+            if (s.ring.size() > 0 || s.flushRequested) return true;
+        }
+        return false;
+    }
+
+    private record Entry(long millis, String line) {
+    }
+
+    private static final class Sink {
+        private final String key;
+        private final Path path;
+        private final RingBuffer<Entry> ring = new RingBuffer<>(BUFFER_SIZE);
+        // callers inside offer(); the writer retires the sink only when there are none
+        private final AtomicInteger users = new AtomicInteger();
+        private volatile boolean retired;
+        private volatile boolean flushRequested;
+        private volatile long written;
+
+        // the writer thread's own
+        private final StringBuilder pending = new StringBuilder(4096);
+        private FileChannel channel;
+        private int count;
+        private long firstAt;
+        private long lastActive = System.nanoTime();
+        private long lastSecond = Long.MIN_VALUE;
+        private String lastStamp;
+
+        Sink(String filePath) {
+            this.key = filePath;
+            this.path = Path.of(filePath);
+        }
+
+        // false when the sink was retired and the line must go to a new one
+        boolean offer(Entry e) {
+            users.incrementAndGet();
+            try {
+                if (retired) return false;
+                while (!ring.offer(e)) {
+                    if (BACKPRESSURE == Backpressure.DROP) {
+                        DROPPED.increment();
+                        return true;
+                    }
+                    LockSupport.unpark(WRITER);
+                    LockSupport.parkNanos(50_000);
+                }
+            } finally {
+                users.decrementAndGet();
+            }
+            if (sleeping) LockSupport.unpark(WRITER);
+            return true;
+        }
+
+        // one batch at most; nanos until the sink next needs the writer, 0 for at once
+        long service() {
+            long now = System.nanoTime();
+            Entry e;
+            while (count < BATCH_SIZE && (e = ring.poll()) != null) {
+                if (count++ == 0) firstAt = now;
+                append(e);
+            }
+            if (count > 0) {
+                lastActive = now;
+                long waited = now - firstAt;
+                boolean due = count >= BATCH_SIZE || FLUSH == FlushPolicy.IMMEDIATE
+                        || waited >= FLUSH_NANOS || flushRequested;
+                if (!due) return FLUSH_NANOS - waited;
+                write(count);
+                count = 0;
+                return ring.size() > 0 ? 0 : IDLE_NANOS;
+            }
+            flushRequested = false;
+
+            long idle = now - lastActive;
+            if (idle < IDLE_NANOS) return IDLE_NANOS - idle;
+            retire();
+            return IDLE_NANOS;
+        }
+
+        // the ring is empty here; a caller already inside offer() keeps the sink for another round
+        private void retire() {
+            retired = true;
+            if (users.get() != 0 || ring.size() > 0) {
+                retired = false;
+                return;
+            }
+            SINKS.remove(key, this);
+            try {
+                if (channel != null) channel.close();
+            } catch (IOException ignored) {
+            }
+            channel = null;
+        }
+
+        private void append(Entry e) {
+            long second = e.millis() / 1000;
+            if (second != lastSecond) {
+                lastSecond = second;
+                lastStamp = LocalDateTime.ofInstant(Instant.ofEpochMilli(e.millis()), ZoneId.systemDefault()).format(F);
+            }
+            pending.append(NL)
+                    .append(RULE).append(NL)
+                    .append('[').append(lastStamp).append("] ").append(e.line()).append(NL);
+        }
+
+        private void write(int lines) {
+            try {
+                if (channel == null) {
+                    if (path.getParent() != null) Files.createDirectories(path.getParent());
+                    channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                }
+                ByteBuffer buf = Charset.defaultCharset().encode(pending.toString());
+                while (buf.hasRemaining()) channel.write(buf);
+                if (FSYNC) channel.force(false);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                try {
+                    if (channel != null) channel.close();
+                } catch (IOException ignored) {
+                }
+                channel = null;
+            } finally {
+                pending.setLength(0);
+                written += lines;
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
     }
 }
@@ -0,0 +1,68 @@
+package common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Bounded lock-free queue for many producers and a single consumer.
+// Each slot carries a sequence number telling producers and the consumer whose turn it is.
+final class RingBuffer<T> {
+    private final Object[] slots;
+    private final AtomicLongArray sequence;
+    private final int mask;
+
+    private final AtomicLong tail = new AtomicLong(); // next slot to claim, shared by producers
+    private volatile long head;                        // next slot to read, consumer only
+
+    RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        slots = new Object[size];
+        sequence = new AtomicLongArray(size);
+        mask = size - 1;
+        for (int i = 0; i < size; i++) sequence.set(i, i);
+    }
+
+    // false when the buffer is full
+    boolean offer(T item) {
+        while (true) {
+            long t = tail.get();
+            int i = (int) (t & mask);
+            long s = sequence.get(i);
+            if (s == t) {
+                if (tail.compareAndSet(t, t + 1)) {
+                    slots[i] = item;
+                    sequence.set(i, t + 1);
+                    return true;
+                }
+            } else if (s < t) {
+                return false;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    T poll() {
+        long h = head;
+        int i = (int) (h & mask);
+        if (sequence.get(i) != h + 1) return null;
+
+        T item = (T) slots[i];
+        slots[i] = null;
+        sequence.set(i, h + slots.length);
+        head = h + 1;
+        return item;
+    }
+
+    // number of items offered so far
+    long offered() {
+        return tail.get();
+    }
+
+    // number of items taken so far
+    long taken() {
+        return head;
+    }
+
+    int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+}
@@ -0,0 +1,108 @@
+package common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+// Where every office runs: host, RMI registry port and inter-office UDP port.
+// Servers use it to find their peers, clients to find the office of a user.
+//
+// Read from the properties file named by -Ddvrms.topology, for example:
+//   offices=MTL,WPG,BNF
+//   MTL.host=10.0.0.5
+//   MTL.rmiPort=1099
+//   MTL.udpPort=6000
+// host defaults to localhost, rmiPort to 1099 and udpPort to 6000 + the office's position in the list.
+// Without the property: MTL, WPG and BNF on localhost, one registry on 1099, UDP 6000-6002.
+public final class Topology {
+
+    public record Office(String code, String host, int rmiPort, int udpPort) {
+        public InetSocketAddress udpAddress() {
+            return new InetSocketAddress(host, udpPort);
+        }
+    }
+
+    private static volatile Topology current;
+
+    private final Map<String, Office> offices;
+
+    private Topology(Map<String, Office> offices) {
+        this.offices = Collections.unmodifiableMap(offices);
+    }
+
+    // the topology of this process, loaded on first use
+    public static Topology get() {
+        Topology t = current;
+        if (t == null) {
+            synchronized (Topology.class) {
+                if (current == null) current = load(System.getProperty("dvrms.topology"));
+                t = current;
+            }
+        }
+        return t;
+    }
+
+    public static Topology load(String file) {
+        Properties p = new Properties();
+        if (file == null || file.isBlank()) {
+            p.setProperty("offices", "MTL,WPG,BNF");
+        } else {
+            try (InputStream in = Files.newInputStream(Path.of(file))) {
+                p.load(in);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read topology " + file, e);
+            }
+        }
+        return from(p);
+    }
+
+    public static Topology from(Properties p) {
+        Map<String, Office> offices = new LinkedHashMap<>();
+        String[] codes = p.getProperty("offices", "").split(",");
+        for (int i = 0; i < codes.length; i++) {
+            String code = codes[i].trim().toUpperCase(Locale.ROOT);
+            if (code.isEmpty()) continue;
+            if (code.length() != 3) throw new IllegalArgumentException("Office code must be 3 letters: " + code);
+
+            String host = p.getProperty(code + ".host", "localhost").trim();
+            int rmiPort = Integer.parseInt(p.getProperty(code + ".rmiPort", "1099").trim());
+            int udpPort = Integer.parseInt(p.getProperty(code + ".udpPort", String.valueOf(6000 + i)).trim());
+            offices.put(code, new Office(code, host, rmiPort, udpPort));
+        }
+        if (offices.isEmpty()) throw new IllegalArgumentException("Topology lists no offices");
+        return new Topology(offices);
+    }
+
+    public List<String> codes() {
+        return new ArrayList<>(offices.keySet());
+    }
+
+    public boolean contains(String code) {
+        return code != null && offices.containsKey(code.toUpperCase(Locale.ROOT));
+    }
+
+    public Office office(String code) {
+        Office o = code == null ? null : offices.get(code.toUpperCase(Locale.ROOT));
+        if (o == null) throw new IllegalArgumentException("Unknown office: " + code);
+        return o;
+    }
+
+    // RMI stub of an office, from the registry it is bound in under its code
+    public DVRMS lookup(String code) throws RemoteException, NotBoundException {
+        Office o = office(code);
+        return (DVRMS) LocateRegistry.getRegistry(o.host(), o.rmiPort()).lookup(o.code());
+    }
+}
@@ -0,0 +1,117 @@
+package server.metrics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+// Named histograms, counters and gauges of one office, reported as plain text.
+// Names are dotted, e.g. "op.reserveVehicle.ok", "udp.rtt.WPG", "waitlist.assigned".
+//
+// Tuning (system properties):
+//   dvrms.metrics.dumpSeconds  how often the report is rewritten to its file (default 60, 0 = never)
+public class Metrics {
+    private static final long DUMP_SECONDS = Long.getLong("dvrms.metrics.dumpSeconds", 60);
+    private static final DateTimeFormatter TS = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final String name;
+    private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    // extra report sections computed on demand, e.g. the most contended vehicles
+    private final ConcurrentHashMap<String, Supplier<String>> sections = new ConcurrentHashMap<>();
+
+    public Metrics(String name) {
+        this.name = name;
+    }
+
+    public Histogram histogram(String key) {
+        return histograms.computeIfAbsent(key, k -> new Histogram());
+    }
+
+    public LongAdder counter(String key) {
+        return counters.computeIfAbsent(key, k -> new LongAdder());
+    }
+
+    public void gauge(String key, LongSupplier value) {
+        gauges.put(key, value);
+    }
+
+    public void section(String title, Supplier<String> body) {
+        sections.put(title, body);
+    }
+
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# metrics ").append(name).append(" at ").append(LocalDateTime.now().format(TS)).append("\n");
+
+        sb.append("\n## latency (count mean p50 p90 p99 p99.9 max)\n");
+        for (Map.Entry<String, Histogram> e : new TreeMap<>(histograms).entrySet()) {
+            Histogram h = e.getValue();
+            if (h.count() == 0) continue;
+            sb.append(String.format("%-40s %8d %9s %9s %9s %9s %9s %9s%n", e.getKey(), h.count(),
+                    time((long) h.mean()), time(h.percentile(0.50)), time(h.percentile(0.90)),
+                    time(h.percentile(0.99)), time(h.percentile(0.999)), time(h.max())));
+        }
+
+        sb.append("\n## counters\n");
+        for (Map.Entry<String, LongAdder> e : new TreeMap<>(counters).entrySet()) {
+            sb.append(String.format("%-40s %d%n", e.getKey(), e.getValue().sum()));
+        }
+
+        sb.append("\n## gauges\n");
+        for (Map.Entry<String, LongSupplier> e : new TreeMap<>(gauges).entrySet()) {
+            sb.append(String.format("%-40s %d%n", e.getKey(), e.getValue().getAsLong()));
+        }
+
+        for (Map.Entry<String, Supplier<String>> e : new TreeMap<>(sections).entrySet()) {
+            sb.append("\n## ").append(e.getKey()).append("\n").append(e.getValue().get());
+        }
+        return sb.toString();
+    }
+
+    // rewrites the report to file every dvrms.metrics.dumpSeconds on a daemon thread
+    public void startDump(Path file) {
+        if (DUMP_SECONDS <= 0) return;
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-" + name);
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleAtFixedRate(() -> {
+            try {
+                dump(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, DUMP_SECONDS, DUMP_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public void dump(Path file) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        Files.writeString(tmp, report(), StandardCharsets.UTF_8);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // nanoseconds in the largest unit that keeps a digit before the point
+    public static String time(long nanos) {
+        if (nanos < 1_000) return nanos + "ns";
+        if (nanos < 1_000_000) return String.format("%.1fus", nanos / 1e3);
+        if (nanos < 1_000_000_000) return String.format("%.1fms", nanos / 1e6);
+        return String.format("%.2fs", nanos / 1e9);
+    }
+}
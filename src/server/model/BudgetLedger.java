@@ -0,0 +1,48 @@
+package server.model;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ObjLongConsumer;
+
+// Customer budgets in cents. Every balance is its own AtomicLong, so debits and credits made
+// under different vehicle locks never overwrite each other.
+public class BudgetLedger {
+    private final long defaultCents;
+    private final ConcurrentHashMap<String, AtomicLong> balances = new ConcurrentHashMap<>();
+
+    public BudgetLedger(long defaultCents) {
+        this.defaultCents = defaultCents;
+    }
+
+    public static long toCents(double amount) {
+        return Math.round(amount * 100);
+    }
+
+    // new customers start with the default budget
+    private AtomicLong account(String customerID) {
+        AtomicLong a = balances.get(customerID);
+        return a != null ? a : balances.computeIfAbsent(customerID, k -> new AtomicLong(defaultCents));
+    }
+
+    // takes the amount only if the whole of it is available
+    public boolean tryDebit(String customerID, long cents) {
+        AtomicLong a = account(customerID);
+        while (true) {
+            long current = a.get();
+            if (current < cents) return false;
+            if (a.compareAndSet(current, current - cents)) return true;
+        }
+    }
+
+    public void credit(String customerID, long cents) {
+        account(customerID).addAndGet(cents);
+    }
+
+    public long balance(String customerID) {
+        return account(customerID).get();
+    }
+
+    public void forEach(ObjLongConsumer<String> action) {
+        balances.forEach((customerID, cents) -> action.accept(customerID, cents.get()));
+    }
+}
@@ -0,0 +1,182 @@
+package server.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+// Reservations packed into one int array, three ints a slot: interned customer, start day, end day
+// (epoch days), in booking order. 12 bytes a booking and no object per booking, so the GC has
+// nothing to trace however many there are. A lookup by customer is a sequential scan over the
+// slots, O(bookings on the vehicle) but cache friendly; Reservation records are made only for
+// what is read out. The number of bookings per customer is kept alongside, so add is O(1)
+// amortized. A removed slot is marked dead rather than shifted out, and the dead are compacted
+// away once they are half the array.
+final class CompactReservationStore implements ReservationStore {
+    private static final int SLOT = 3;
+    private static final int DEAD = -1; // in the customer int of a removed slot
+    private static final int[] EMPTY = new int[0];
+
+    private int[] slots = EMPTY;
+    private int used;  // slots written, dead ones included
+    private int size;  // live slots
+
+    // customer -> bookings here, open addressing; key is customer + 1, 0 marks a free entry
+    private int[] countKeys = EMPTY;
+    private int[] counts = EMPTY;
+    private int countEntries;
+
+    @Override
+    public int add(Reservation r) {
+        int at = used * SLOT;
+        if (at == slots.length) slots = Arrays.copyOf(slots, Math.max(4 * SLOT, slots.length * 2));
+        int customer = CustomerIds.intern(r.customerID());
+        slots[at] = customer;
+        slots[at + 1] = r.startDay();
+        slots[at + 2] = r.endDay();
+        used++;
+        size++;
+        return bump(customer, 1);
+    }
+
+    @Override
+    public int remove(Reservation r) {
+        int customer = CustomerIds.find(r.customerID());
+        if (count(customer) == 0) return -1;
+        int end = used * SLOT;
+        for (int at = 0; at < end; at += SLOT) {
+            if (slots[at] == customer && slots[at + 1] == r.startDay() && slots[at + 2] == r.endDay()) {
+                slots[at] = DEAD;
+                size--;
+                int left = bump(customer, -1);
+                if (size == 0) clear();
+                else if (size < used / 2) compact();
+                return left;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public Reservation first(String customerID) {
+        int customer = CustomerIds.find(customerID);
+        if (count(customer) == 0) return null;
+        int end = used * SLOT;
+        for (int at = 0; at < end; at += SLOT) {
+            if (slots[at] == customer) return new Reservation(customerID, slots[at + 1], slots[at + 2]);
+        }
+        return null;
+    }
+
+    @Override
+    public List<Reservation> of(String customerID) {
+        int customer = CustomerIds.find(customerID);
+        int n = count(customer);
+        if (n == 0) return List.of();
+        List<Reservation> mine = new ArrayList<>(n);
+        int end = used * SLOT;
+        for (int at = 0; at < end && mine.size() < n; at += SLOT) {
+            if (slots[at] == customer) mine.add(new Reservation(customerID, slots[at + 1], slots[at + 2]));
+        }
+        return mine;
+    }
+
+    @Override
+    public List<Reservation> all() {
+        List<Reservation> all = new ArrayList<>(size);
+        int end = used * SLOT;
+        for (int at = 0; at < end; at += SLOT) {
+            if (slots[at] != DEAD) all.add(new Reservation(CustomerIds.name(slots[at]), slots[at + 1], slots[at + 2]));
+        }
+        return all;
+    }
+
+    @Override
+    public void forEachCustomer(Consumer<String> action) {
+        Set<String> seen = new LinkedHashSet<>();
+        int end = used * SLOT;
+        for (int at = 0; at < end; at += SLOT) {
+            if (slots[at] != DEAD) seen.add(CustomerIds.name(slots[at]));
+        }
+        seen.forEach(action);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        slots = EMPTY;
+        used = 0;
+        size = 0;
+        countKeys = EMPTY;
+        counts = EMPTY;
+        countEntries = 0;
+    }
+
+    // drops the dead slots, keeping booking order, and the customers left with no booking
+    private void compact() {
+        int to = 0;
+        int end = used * SLOT;
+        for (int at = 0; at < end; at += SLOT) {
+            if (slots[at] == DEAD) continue;
+            if (to != at) System.arraycopy(slots, at, slots, to, SLOT);
+            to += SLOT;
+        }
+        used = size;
+        if (slots.length > 4 * SLOT && used * SLOT * 4 <= slots.length) {
+            slots = Arrays.copyOf(slots, Math.max(4 * SLOT, slots.length / 2));
+        }
+
+        int[] keys = countKeys;
+        int[] values = counts;
+        countKeys = EMPTY;
+        counts = EMPTY;
+        countEntries = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0 && values[i] > 0) bump(keys[i] - 1, values[i]);
+        }
+    }
+
+    private int count(int customer) {
+        if (customer < 0 || countKeys.length == 0) return 0;
+        int mask = countKeys.length - 1;
+        for (int i = mix(customer) & mask; ; i = (i + 1) & mask) {
+            if (countKeys[i] == 0) return 0;
+            if (countKeys[i] == customer + 1) return counts[i];
+        }
+    }
+
+    // adds delta to the customer's count and returns the new count; entries at 0 stay until compact()
+    private int bump(int customer, int delta) {
+        if ((countEntries + 1) * 4 > countKeys.length * 3) growCounts();
+        int mask = countKeys.length - 1;
+        for (int i = mix(customer) & mask; ; i = (i + 1) & mask) {
+            if (countKeys[i] == customer + 1) return counts[i] += delta;
+            if (countKeys[i] == 0) {
+                countKeys[i] = customer + 1;
+                countEntries++;
+                return counts[i] = delta;
+            }
+        }
+    }
+
+    private void growCounts() {
+        int[] keys = countKeys;
+        int[] values = counts;
+        countKeys = new int[Math.max(4, keys.length * 2)];
+        counts = new int[countKeys.length];
+        countEntries = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) bump(keys[i] - 1, values[i]);
+        }
+    }
+
+    private static int mix(int customer) {
+        return customer * 0x9E3779B9 >>> 16 ^ customer;
+    }
+}
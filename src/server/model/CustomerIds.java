@@ -0,0 +1,39 @@
+package server.model;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Customer IDs as dense ints for the compact reservation store, shared by every vehicle in the JVM.
+// An ID is never given back: there are far fewer customers than bookings.
+final class CustomerIds {
+    private CustomerIds() {}
+
+    private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    // written before the ID is published in ids, so whoever got the ID sees the name
+    private static volatile String[] names = new String[1024];
+    private static int next;
+
+    static int intern(String customerID) {
+        Integer id = ids.get(customerID);
+        return id != null ? id : add(customerID);
+    }
+
+    // -1 for a customer never interned, which matches no slot
+    static int find(String customerID) {
+        Integer id = ids.get(customerID);
+        return id == null ? -1 : id;
+    }
+
+    static String name(int id) {
+        return names[id];
+    }
+
+    private static synchronized int add(String customerID) {
+        Integer id = ids.get(customerID);
+        if (id != null) return id;
+        if (next == names.length) names = Arrays.copyOf(names, next * 2);
+        names[next] = customerID;
+        ids.put(customerID, next);
+        return next++;
+    }
+}
@@ -0,0 +1,88 @@
+package server.model;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+// Per-office view of what each customer holds:
+//   vehicles  this office's vehicles the customer has at least one reservation on
+//             (kept up to date by vehicleRecord as reservations come and go)
+//   remote    other offices the customer booked through this office (one vehicle each at most),
+//             claimed while such a booking is in progress
+// Thread-safe; each set is changed with compute, so an emptied set never outlives its last entry.
+public class CustomerIndex {
+    private final ConcurrentHashMap<String, Set<String>> vehicles = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<String>> remote = new ConcurrentHashMap<>();
+
+    void addVehicle(String customerID, String vehicleID) {
+        add(vehicles, customerID, vehicleID);
+    }
+
+    void removeVehicle(String customerID, String vehicleID) {
+        remove(vehicles, customerID, vehicleID);
+    }
+
+    public Set<String> vehiclesOf(String customerID) {
+        Set<String> ids = vehicles.get(customerID);
+        return ids == null ? Set.of() : Collections.unmodifiableSet(ids);
+    }
+
+    public boolean holdsRemote(String customerID, String office) {
+        Set<String> offices = remote.get(customerID);
+        return offices != null && offices.contains(office);
+    }
+
+    public void setRemote(String customerID, String office, boolean held) {
+        if (held) add(remote, customerID, office);
+        else remove(remote, customerID, office);
+    }
+
+    // takes the customer's one slot at the office; false when it is taken already
+    public boolean claimRemote(String customerID, String office) {
+        boolean[] claimed = {false};
+        remote.compute(customerID, (k, set) -> {
+            if (set == null) set = ConcurrentHashMap.newKeySet();
+            claimed[0] = set.add(office);
+            return set;
+        });
+        return claimed[0];
+    }
+
+    // gives the slot back; false when the customer did not hold it, so a refund is paid once
+    public boolean releaseRemote(String customerID, String office) {
+        boolean[] released = {false};
+        remote.computeIfPresent(customerID, (k, set) -> {
+            released[0] = set.remove(office);
+            return set.isEmpty() ? null : set;
+        });
+        return released[0];
+    }
+
+    public Set<String> remoteOfficesOf(String customerID) {
+        Set<String> offices = remote.get(customerID);
+        return offices == null ? Set.of() : Collections.unmodifiableSet(offices);
+    }
+
+    // (customerID, office) for every remote office held
+    public void forEachRemote(BiConsumer<String, String> action) {
+        remote.forEach((customerID, offices) -> {
+            for (String office : offices) action.accept(customerID, office);
+        });
+    }
+
+    private static void add(ConcurrentHashMap<String, Set<String>> map, String customerID, String value) {
+        map.compute(customerID, (k, set) -> {
+            if (set == null) set = ConcurrentHashMap.newKeySet();
+            set.add(value);
+            return set;
+        });
+    }
+
+    private static void remove(ConcurrentHashMap<String, Set<String>> map, String customerID, String value) {
+        map.computeIfPresent(customerID, (k, set) -> {
+            set.remove(value);
+            return set.isEmpty() ? null : set;
+        });
+    }
+}
@@ -0,0 +1,64 @@
+package server.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Consumer;
+
+// customerID -> that customer's reservations, in booking order; lookups by customer are O(1)
+final class HeapReservationStore implements ReservationStore {
+    private final HashMap<String, List<Reservation>> byCustomer = new HashMap<>();
+    private int size;
+
+    @Override
+    public int add(Reservation r) {
+        List<Reservation> mine = byCustomer.computeIfAbsent(r.customerID(), k -> new ArrayList<>(1));
+        mine.add(r);
+        size++;
+        return mine.size();
+    }
+
+    @Override
+    public int remove(Reservation r) {
+        List<Reservation> mine = byCustomer.get(r.customerID());
+        if (mine == null || !mine.remove(r)) return -1;
+        size--;
+        if (mine.isEmpty()) byCustomer.remove(r.customerID());
+        return mine.size();
+    }
+
+    @Override
+    public Reservation first(String customerID) {
+        List<Reservation> mine = byCustomer.get(customerID);
+        return mine == null ? null : mine.get(0);
+    }
+
+    @Override
+    public List<Reservation> of(String customerID) {
+        List<Reservation> mine = byCustomer.get(customerID);
+        return mine == null ? List.of() : List.copyOf(mine);
+    }
+
+    @Override
+    public List<Reservation> all() {
+        List<Reservation> all = new ArrayList<>(size);
+        for (List<Reservation> mine : byCustomer.values()) all.addAll(mine);
+        return all;
+    }
+
+    @Override
+    public void forEachCustomer(Consumer<String> action) {
+        byCustomer.keySet().forEach(action);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        byCustomer.clear();
+        size = 0;
+    }
+}
@@ -0,0 +1,117 @@
+package server.model;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+
+// Number of bookings covering each day of a vehicle, as a sparse segment tree over epoch days.
+// Range add and "max concurrent bookings over [start, end]" are both O(log days);
+// the day-by-day profile of a range costs O(log days) per run of equal counts.
+// Not thread safe: callers hold the vehicle lock.
+public class OccupancyIndex {
+
+    // ddMMuuuu only covers years 0000-9999
+    static final int MIN_DAY = (int) LocalDate.of(0, 1, 1).toEpochDay();
+    static final int MAX_DAY = (int) LocalDate.of(9999, 12, 31).toEpochDay();
+
+    // node 0 is the shared empty child, node 1 is the root
+    private int[] left = new int[64];
+    private int[] right = new int[64];
+    private int[] max = new int[64];  // add[n] + max over children
+    private int[] add = new int[64];  // pending count for the whole node range
+    private int size = 2;
+
+    // add delta bookings to every day in [start, end]
+    public void add(int start, int end, int delta) {
+        add(1, MIN_DAY, MAX_DAY, start, end, delta);
+    }
+
+    // peak number of bookings on any day in [start, end]
+    public int maxOver(int start, int end) {
+        return query(1, MIN_DAY, MAX_DAY, start, end);
+    }
+
+    public interface RunConsumer {
+        void accept(int start, int end, int count);
+    }
+
+    // the bookings per day over [start, end] as maximal runs of equal count, in day order
+    public void forEachRun(int start, int end, RunConsumer action) {
+        int[] run = {start, 0}; // start and count of the run being built
+        visit(1, MIN_DAY, MAX_DAY, start, end, 0, (s, e, count) -> {
+            if (s > run[0] && count != run[1]) {
+                action.accept(run[0], s - 1, run[1]);
+                run[0] = s;
+            }
+            run[1] = count;
+        });
+        action.accept(run[0], end, run[1]);
+    }
+
+    public void clear() {
+        Arrays.fill(left, 0, size, 0);
+        Arrays.fill(right, 0, size, 0);
+        Arrays.fill(max, 0, size, 0);
+        Arrays.fill(add, 0, size, 0);
+        size = 2;
+    }
+
+    private void add(int node, int lo, int hi, int s, int e, int delta) {
+        if (s <= lo && hi <= e) {
+            add[node] += delta;
+            max[node] += delta;
+            return;
+        }
+        int mid = lo + (hi - lo) / 2;
+        if (s <= mid) {
+            int c = left[node];
+            if (c == 0) {
+                c = newNode();
+                left[node] = c;
+            }
+            add(c, lo, mid, s, e, delta);
+        }
+        if (e > mid) {
+            int c = right[node];
+            if (c == 0) {
+                c = newNode();
+                right[node] = c;
+            }
+            add(c, mid + 1, hi, s, e, delta);
+        }
+        max[node] = add[node] + Math.max(max[left[node]], max[right[node]]);
+    }
+
+    private int query(int node, int lo, int hi, int s, int e) {
+        if (node == 0) return 0;
+        if (s <= lo && hi <= e) return max[node];
+
+        int mid = lo + (hi - lo) / 2;
+        int best = 0;
+        if (s <= mid) best = query(left[node], lo, mid, s, e);
+        if (e > mid) best = Math.max(best, query(right[node], mid + 1, hi, s, e));
+        return best + add[node];
+    }
+
+    // reports the pieces of [s, e] below node whose count is uniform, left to right
+    private void visit(int node, int lo, int hi, int s, int e, int above, RunConsumer out) {
+        if (node == 0 || (left[node] == 0 && right[node] == 0)) {
+            out.accept(Math.max(lo, s), Math.min(hi, e), above + add[node]);
+            return;
+        }
+        int mid = lo + (hi - lo) / 2;
+        above += add[node];
+        if (s <= mid) visit(left[node], lo, mid, s, e, above, out);
+        if (e > mid) visit(right[node], mid + 1, hi, s, e, above, out);
+    }
+
+    private int newNode() {
+        if (size == left.length) {
+            int n = size * 2;
+            left = Arrays.copyOf(left, n);
+            right = Arrays.copyOf(right, n);
+            max = Arrays.copyOf(max, n);
+            add = Arrays.copyOf(add, n);
+        }
+        return size++;
+    }
+}
@@ -5,37 +5,44 @@ import java.time.format.DateTimeFormatter;
 import java.time.format.ResolverStyle;
 import java.time.format.DateTimeParseException;
 
-public record Reservation(String customerID, String startDate, String endDate) {
+// dates are epoch days, parsed once where requests enter the server
+public record Reservation(String customerID, int startDay, int endDay) {
 
     // ddMMyyyy
     private static final DateTimeFormatter FMT =
             DateTimeFormatter.ofPattern("ddMMuuuu").withResolverStyle(ResolverStyle.STRICT);
 
-    private static LocalDate parse(String ddMMyyyy) throws DateTimeParseException {
-        return LocalDate.parse(ddMMyyyy.trim(), FMT);
+    public static int parseDay(String ddMMyyyy) throws DateTimeParseException {
+        return (int) LocalDate.parse(ddMMyyyy.trim(), FMT).toEpochDay();
     }
 
-    //check reservation [startDate, endDate] with [newStart, newEnd]
-    public boolean overlaps(String newStart, String newEnd) {
-        LocalDate aStart = parse(startDate);
-        LocalDate aEnd   = parse(endDate);
-        LocalDate bStart = parse(newStart);
-        LocalDate bEnd   = parse(newEnd);
+    public static String formatDay(int epochDay) {
+        return LocalDate.ofEpochDay(epochDay).format(FMT);
+    }
+
+    //check reservation [startDay, endDay] with [newStart, newEnd]
+    public boolean overlaps(int newStart, int newEnd) {
+        return startDay <= newEnd && newStart <= endDay;
+    }
 
-        return !(aEnd.isBefore(bStart) || bEnd.isBefore(aStart));
+    public String startDate() {
+        return formatDay(startDay);
     }
 
-    //for server
-    public static boolean isValidRange(String start, String end) {
+    public String endDate() {
+        return formatDay(endDay);
+    }
+
+    //for server: null when either date is malformed or end is before start
+    public static int[] parseRange(String start, String end) {
+        if (start == null || end == null) return null;
         try {
-            LocalDate s = parse(start.trim());
-            LocalDate e = parse(end.trim());
-            return !e.isBefore(s);
+            int s = parseDay(start);
+            int e = parseDay(end);
+            return e < s ? null : new int[]{s, e};
         } catch (DateTimeParseException ex) {
-            ex.printStackTrace();
-            return false;
+            return null;
         }
-
     }
 
 }
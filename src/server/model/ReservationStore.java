@@ -0,0 +1,48 @@
+package server.model;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+// The reservations of one vehicle, by customer in booking order. Not thread safe: callers hold the
+// vehicle lock, or read through vehicleRecord.read().
+//
+// Tuning (system properties):
+//   dvrms.store  heap     one Reservation record per booking, listed per customer (default)
+//                compact  fixed-width int slots with interned customer IDs, for very large fleets
+//                         (see CompactReservationStore)
+public interface ReservationStore {
+    String KIND = System.getProperty("dvrms.store", "heap");
+
+    // the customer's number of reservations here once r is added
+    int add(Reservation r);
+
+    // the customer's number of reservations left here, -1 when r was not one of them
+    int remove(Reservation r);
+
+    // the customer's earliest-booked reservation, or null
+    Reservation first(String customerID);
+
+    // copies
+    List<Reservation> of(String customerID);
+
+    List<Reservation> all();
+
+    // every customer with at least one reservation, once each
+    void forEachCustomer(Consumer<String> action);
+
+    int size();
+
+    void clear();
+
+    static ReservationStore create() {
+        return create(KIND);
+    }
+
+    static ReservationStore create(String kind) {
+        return switch (kind) {
+            case "heap" -> new HeapReservationStore();
+            case "compact" -> new CompactReservationStore();
+            default -> throw new IllegalArgumentException("dvrms.store must be heap or compact, not " + kind);
+        };
+    }
+}
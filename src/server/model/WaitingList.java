@@ -1,5 +1,5 @@
 package server.model;
 
-public record WaitingList(String customerID, String startDate, String endDate) {
+public record WaitingList(String customerID, int startDay, int endDay) {
 
 }
@@ -0,0 +1,99 @@
+package server.model;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.function.Function;
+
+// Waiting requests of one vehicle in arrival order, drained in a single pass.
+//
+// Policies:
+//   STRICT_FIFO   the first request that does not fit stops the drain; nobody overtakes it
+//   OVERLAP_FIFO  a request only waits behind earlier requests whose dates overlap its own;
+//                 the days still wanted by earlier waiters are kept in an OccupancyIndex,
+//                 so that check is O(log days) like the capacity check
+// Not thread-safe: the owning vehicle's lock guards it.
+public class WaitlistIndex implements Iterable<WaitingList> {
+
+    public enum Policy {
+        STRICT_FIFO, OVERLAP_FIFO;
+
+        public static Policy parse(String s) {
+            return valueOf(s.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    // what the caller did with one offered request
+    public enum Outcome { ASSIGNED, DROPPED, NO_ROOM }
+
+    private final ArrayList<WaitingList> queue = new ArrayList<>();
+    private OccupancyIndex waiting; // OVERLAP_FIFO scratch, created on first use
+
+    public void add(WaitingList w) {
+        queue.add(w);
+    }
+
+    public boolean remove(WaitingList w) {
+        return queue.remove(w);
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    public void clear() {
+        queue.clear();
+    }
+
+    @Override
+    public Iterator<WaitingList> iterator() {
+        return queue.iterator();
+    }
+
+    // offers the requests in arrival order; ASSIGNED and DROPPED ones leave the queue, which is
+    // compacted in the same pass. Returns the number assigned.
+    public int drain(Policy policy, Function<WaitingList, Outcome> offer) {
+        int n = queue.size();
+        if (n == 0) return 0;
+
+        boolean overlap = policy == Policy.OVERLAP_FIFO;
+        if (overlap) {
+            if (waiting == null) waiting = new OccupancyIndex();
+            else waiting.clear();
+        }
+
+        int kept = 0;
+        int assigned = 0;
+        boolean stopped = false;
+        int i = 0;
+        try {
+            for (; i < n; i++) {
+                WaitingList w = queue.get(i);
+
+                Outcome o;
+                if (stopped || (overlap && waiting.maxOver(w.startDay(), w.endDay()) > 0)) {
+                    o = Outcome.NO_ROOM; // an earlier request has these days first
+                } else {
+                    o = offer.apply(w);
+                }
+
+                if (o == Outcome.NO_ROOM) {
+                    queue.set(kept++, w);
+                    if (overlap) waiting.add(w.startDay(), w.endDay(), 1);
+                    else stopped = true;
+                } else if (o == Outcome.ASSIGNED) {
+                    assigned++;
+                }
+            }
+        } finally {
+            // if offer threw, the request it was given and everything after it stay queued
+            for (; i < n; i++) queue.set(kept++, queue.get(i));
+            queue.subList(kept, n).clear();
+        }
+        return assigned;
+    }
+}
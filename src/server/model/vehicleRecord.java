@@ -1,10 +1,10 @@
 package server.model;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Deque;
 import java.util.List;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
 
 public class vehicleRecord {
     public final String vehicleID;
@@ -12,14 +12,167 @@ public class vehicleRecord {
     public int vehicleNumber;
     public double price;
 
-    public final List<Reservation> reservations = new ArrayList<>();
-    public final Deque<WaitingList> waitlist = new ArrayDeque<>();
-    public final ReentrantLock lock = new ReentrantLock(true);
+    // by customer, in booking order; the engine is picked with dvrms.store (see ReservationStore)
+    private final ReservationStore reservations;
+    private final CustomerIndex customers; // office-wide index to keep in step, may be null
+
+    public final WaitlistIndex waitlist = new WaitlistIndex();
+
+    // Writers hold lock, the write side of a StampedLock (not reentrant). Readers go through read():
+    // an optimistic read that never blocks, repeated under the read lock only if a writer got in.
+    private final StampedLock stamped = new StampedLock();
+    public final Lock lock = stamped.asWriteLock();
+
+    private final OccupancyIndex occupancy = new OccupancyIndex();
+
+    // times a writer found lock taken, and how long those writers waited in total
+    private volatile long lockWaits;
+    private volatile long lockWaitNanos;
 
     public vehicleRecord(String vehicleID, String vehicleType, int vehicleNumber, double price) {
+        this(vehicleID, vehicleType, vehicleNumber, price, null);
+    }
+
+    public vehicleRecord(String vehicleID, String vehicleType, int vehicleNumber, double price, CustomerIndex customers) {
+        this(vehicleID, vehicleType, vehicleNumber, price, customers, ReservationStore.create());
+    }
+
+    public vehicleRecord(String vehicleID, String vehicleType, int vehicleNumber, double price, CustomerIndex customers,
+                         ReservationStore reservations) {
         this.vehicleID = vehicleID;
         this.vehicleType = vehicleType;
         this.vehicleNumber = vehicleNumber;
         this.price = price;
+        this.customers = customers;
+        this.reservations = reservations;
+    }
+
+    // reservations, occupancy and the customer index must change together; callers hold lock
+    public void addReservation(Reservation r) {
+        int mine = reservations.add(r);
+        occupancy.add(r.startDay(), r.endDay(), 1);
+        if (mine == 1 && customers != null) customers.addVehicle(r.customerID(), vehicleID);
+    }
+
+    public boolean removeReservation(Reservation r) {
+        int left = reservations.remove(r);
+        if (left < 0) return false;
+        occupancy.add(r.startDay(), r.endDay(), -1);
+        if (left == 0 && customers != null) customers.removeVehicle(r.customerID(), vehicleID);
+        return true;
+    }
+
+    public void clearReservations() {
+        if (customers != null) reservations.forEachCustomer(customerID -> customers.removeVehicle(customerID, vehicleID));
+        reservations.clear();
+        occupancy.clear();
+    }
+
+    // the customer's earliest-booked reservation on this vehicle, or null; callers hold lock
+    public Reservation reservationOf(String customerID) {
+        return reservations.first(customerID);
+    }
+
+    // every reservation, as a copy; callers hold lock
+    public List<Reservation> reservations() {
+        return reservations.all();
+    }
+
+    public int reservationCount() {
+        return reservations.size();
+    }
+
+    // the customer's reservations on this vehicle, taken under the read lock
+    public List<Reservation> reservationsOf(String customerID) {
+        long stamp = stamped.readLock();
+        try {
+            return reservations.of(customerID);
+        } finally {
+            stamped.unlockRead(stamp);
+        }
+    }
+
+    // peak number of reservations on any day of [startDay, endDay]; callers hold lock or use read()
+    public int maxConcurrent(int startDay, int endDay) {
+        return occupancy.maxOver(startDay, endDay);
+    }
+
+    // reader may see a half-written record and even throw; that result is dropped unless the stamp validates
+    public <T> T read(Supplier<T> reader) {
+        long stamp = stamped.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                T result = reader.get();
+                if (stamped.validate(stamp)) return result;
+            } catch (RuntimeException e) {
+                // torn read, done again under the read lock
+            }
+        }
+        stamp = stamped.readLock();
+        try {
+            return reader.get();
+        } finally {
+            stamped.unlockRead(stamp);
+        }
+    }
+
+    // whether one more reservation fits in [startDay, endDay], without waiting for writers
+    public boolean hasRoom(int startDay, int endDay) {
+        long stamp = stamped.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                boolean room = occupancy.maxOver(startDay, endDay) < vehicleNumber;
+                if (stamped.validate(stamp)) return room;
+            } catch (RuntimeException e) {
+                // torn read, done again under the read lock
+            }
+        }
+        stamp = stamped.readLock();
+        try {
+            return occupancy.maxOver(startDay, endDay) < vehicleNumber;
+        } finally {
+            stamped.unlockRead(stamp);
+        }
+    }
+
+    // callers hold lock, so the plain increments do not race
+    public void noteLockWait(long nanos) {
+        lockWaits++;
+        lockWaitNanos += nanos;
+    }
+
+    public long lockWaits() {
+        return lockWaits;
+    }
+
+    public long lockWaitNanos() {
+        return lockWaitNanos;
+    }
+
+    public record Listing(String vehicleType, int vehicleNumber, double price) {
+    }
+
+    // type, quantity and price as of one moment, for FIND and the manager's list
+    public Listing listing() {
+        return read(() -> new Listing(vehicleType, vehicleNumber, price));
+    }
+
+    // free units on every day of [startDay, endDay] of a run
+    public record FreeRun(int startDay, int endDay, int free) {
+    }
+
+    // free: units bookable for the whole range; runs: free units day by day
+    public record Availability(Listing listing, int free, List<FreeRun> runs) {
+    }
+
+    // free capacity over [startDay, endDay] as of one moment, for findAvailable
+    public Availability availability(int startDay, int endDay) {
+        return read(() -> {
+            List<FreeRun> runs = new ArrayList<>(2);
+            occupancy.forEachRun(startDay, endDay,
+                    (s, e, booked) -> runs.add(new FreeRun(s, e, Math.max(0, vehicleNumber - booked))));
+            int free = Math.max(0, vehicleNumber - occupancy.maxOver(startDay, endDay));
+            return new Availability(new Listing(vehicleType, vehicleNumber, price), free, runs);
+        });
     }
 }
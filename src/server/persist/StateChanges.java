@@ -0,0 +1,26 @@
+package server.persist;
+
+// The changes an office makes to its state. StateJournal logs them as they happen;
+// snapshots and recovery replay them into a fresh office.
+public interface StateChanges {
+
+    // creates the vehicle, or overwrites type, quantity and price of an existing one
+    void putVehicle(String vehicleID, String vehicleType, int vehicleNumber, double price);
+
+    // drops the vehicle together with its reservations and waitlist
+    void removeVehicle(String vehicleID);
+
+    void reserve(String vehicleID, String customerID, int startDay, int endDay);
+
+    void cancel(String vehicleID, String customerID, int startDay, int endDay);
+
+    void waitlistAdd(String vehicleID, String customerID, int startDay, int endDay);
+
+    void waitlistRemove(String vehicleID, String customerID, int startDay, int endDay);
+
+    // budgets are logged as deltas, so debits made under different vehicle locks replay in any order
+    void budget(String customerID, long deltaCents);
+
+    // the customer holds (or released) their one reservation at another office
+    void remoteOffice(String customerID, String office, boolean held);
+}
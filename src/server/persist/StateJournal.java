@@ -0,0 +1,532 @@
+package server.persist;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+// Write-ahead log plus snapshots for one office, under <dataDir>/<office>/.
+//
+// Every state change is framed as [length][crc32][payload] and queued; one writer thread appends
+// whatever has queued up to wal-<n>.log with a single write and a single fsync (group commit).
+// A snapshot is the same kind of records, describing the whole state, in snapshot-<n>.bin;
+// it replaces every segment before n. Recovery loads the newest complete snapshot and replays
+// the segments from n on, stopping at the first torn record.
+//
+// Callers bracket a state-changing operation with enter()/exit(). Snapshots wait for operations
+// in flight, and the outermost exit() returns once the operation's records are on disk.
+//
+// Tuning (system properties):
+//   dvrms.persist                  false turns the journal off (default true)
+//   dvrms.dataDir                  base directory (default data)
+//   dvrms.wal.sync                 fsync each batch and make exit() wait for it (default true)
+//   dvrms.snapshot.intervalSeconds how often to consider a snapshot (default 30)
+//   dvrms.snapshot.minRecords      records since the last snapshot needed to take one (default 10000)
+public class StateJournal implements StateChanges {
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("dvrms.persist", "true"));
+    private static final String DATA_DIR = System.getProperty("dvrms.dataDir", "data");
+    private static final boolean SYNC = Boolean.parseBoolean(System.getProperty("dvrms.wal.sync", "true"));
+    private static final long SNAPSHOT_SECONDS = Long.getLong("dvrms.snapshot.intervalSeconds", 30);
+    private static final long SNAPSHOT_MIN_RECORDS = Long.getLong("dvrms.snapshot.minRecords", 10_000);
+
+    private static final byte PUT_VEHICLE = 1;
+    private static final byte REMOVE_VEHICLE = 2;
+    private static final byte RESERVE = 3;
+    private static final byte CANCEL = 4;
+    private static final byte WAIT_ADD = 5;
+    private static final byte WAIT_REMOVE = 6;
+    private static final byte BUDGET = 7;
+    private static final byte REMOTE = 8;
+    private static final byte END = 127;
+
+    private static final int MAX_RECORD = 1 << 20;
+
+    private final String office;
+    private final boolean enabled;
+    private final Path dir;
+
+    // operations hold the read side, a snapshot takes the write side
+    private final ReentrantReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+    private final ThreadLocal<long[]> threadState = ThreadLocal.withInitial(() -> new long[2]); // depth, last seq
+
+    // group commit queue
+    private final ReentrantLock queueLock = new ReentrantLock();
+    private final Condition hasWork = queueLock.newCondition();
+    private final Condition flushed = queueLock.newCondition();
+    private final List<Object> queue = new ArrayList<>(); // framed records and Rotate markers
+    private long appended;
+    private long durable;
+    private long sinceSnapshot;
+    private boolean writerWaiting;
+
+    private int segment;          // segment new records go to
+    private FileChannel channel;  // writer thread only
+
+    private Consumer<StateChanges> dumper;
+
+    private record Rotate(int segment, CompletableFuture<Void> done) {
+    }
+
+    private StateJournal(String office, boolean enabled) {
+        this.office = office;
+        this.enabled = enabled;
+        this.dir = Path.of(DATA_DIR, office);
+    }
+
+    public static StateJournal open(String office) {
+        return new StateJournal(office, ENABLED);
+    }
+
+    // a journal that records nothing, for in-memory offices
+    public static StateJournal disabled(String office) {
+        return new StateJournal(office, false);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /* ============================ Recovery ============================ */
+
+    // replays the newest complete snapshot and the log after it into target
+    public void recover(StateChanges target) throws IOException {
+        if (!enabled) return;
+        Files.createDirectories(dir);
+
+        TreeMap<Integer, Path> snapshots = numbered("snapshot-", ".bin");
+        TreeMap<Integer, Path> segments = numbered("wal-", ".log");
+
+        int base = 0;
+        for (var e : snapshots.descendingMap().entrySet()) {
+            byte[] image = Files.readAllBytes(e.getValue());
+            if (replay(image, null)) { // complete and undamaged
+                replay(image, target);
+                base = e.getKey();
+                break;
+            }
+        }
+        for (var e : segments.tailMap(base, true).entrySet()) {
+            replay(Files.readAllBytes(e.getValue()), target);
+        }
+
+        int last = segments.isEmpty() ? 0 : segments.lastKey();
+        segment = Math.max(last, base) + 1;
+    }
+
+    // starts writing the log and taking periodic snapshots; dumper describes the current state
+    public void start(Consumer<StateChanges> dumper) throws IOException {
+        if (!enabled) return;
+        this.dumper = dumper;
+        channel = openSegment(segment);
+
+        Thread writer = new Thread(this::writeLoop, "wal-writer-" + office);
+        writer.setDaemon(true);
+        writer.start();
+
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "wal-snapshot-" + office);
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(() -> {
+            try {
+                if (pendingSinceSnapshot() >= SNAPSHOT_MIN_RECORDS) snapshot();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, SNAPSHOT_SECONDS, SNAPSHOT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private TreeMap<Integer, Path> numbered(String prefix, String suffix) throws IOException {
+        TreeMap<Integer, Path> out = new TreeMap<>();
+        try (var files = Files.list(dir)) {
+            files.forEach(p -> {
+                String name = p.getFileName().toString();
+                if (!name.startsWith(prefix) || !name.endsWith(suffix)) return;
+                try {
+                    out.put(Integer.parseInt(name.substring(prefix.length(), name.length() - suffix.length())), p);
+                } catch (NumberFormatException ignored) {
+                }
+            });
+        }
+        return out;
+    }
+
+    // applies records until the end or the first damaged one; true if an END marker was reached
+    private static boolean replay(byte[] data, StateChanges target) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        while (true) {
+            byte[] payload;
+            try {
+                int len = in.readInt();
+                int crc = in.readInt();
+                if (len <= 0 || len > MAX_RECORD) return false;
+                payload = in.readNBytes(len);
+                if (payload.length < len || crc != crc(payload)) return false;
+            } catch (EOFException e) {
+                return false;
+            }
+            if (payload[0] == END) return true;
+            if (target != null) decode(payload, target);
+        }
+    }
+
+    private static void decode(byte[] payload, StateChanges t) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        switch (type) {
+            case PUT_VEHICLE -> t.putVehicle(in.readUTF(), in.readUTF(), in.readInt(), in.readDouble());
+            case REMOVE_VEHICLE -> t.removeVehicle(in.readUTF());
+            case RESERVE -> t.reserve(in.readUTF(), in.readUTF(), in.readInt(), in.readInt());
+            case CANCEL -> t.cancel(in.readUTF(), in.readUTF(), in.readInt(), in.readInt());
+            case WAIT_ADD -> t.waitlistAdd(in.readUTF(), in.readUTF(), in.readInt(), in.readInt());
+            case WAIT_REMOVE -> t.waitlistRemove(in.readUTF(), in.readUTF(), in.readInt(), in.readInt());
+            case BUDGET -> t.budget(in.readUTF(), in.readLong());
+            case REMOTE -> t.remoteOffice(in.readUTF(), in.readUTF(), in.readBoolean());
+            default -> throw new IOException("Unknown journal record type " + type);
+        }
+    }
+
+    private static int crc(byte[] payload) {
+        CRC32 c = new CRC32();
+        c.update(payload);
+        return (int) c.getValue();
+    }
+
+    /* ============================ Operations ============================ */
+
+    public void enter() {
+        if (!enabled) return;
+        snapshotLock.readLock().lock();
+        threadState.get()[0]++;
+    }
+
+    public void exit() {
+        if (!enabled) return;
+        long[] st = threadState.get();
+        snapshotLock.readLock().unlock();
+        if (--st[0] > 0 || st[1] == 0 || !SYNC) return;
+
+        long seq = st[1];
+        st[1] = 0;
+        queueLock.lock();
+        try {
+            while (durable < seq) flushed.awaitUninterruptibly();
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    private void append(Encoder e) {
+        if (!enabled) return;
+        byte[] framed = e.toByteArray();
+        long seq;
+        queueLock.lock();
+        try {
+            queue.add(framed);
+            seq = ++appended;
+            sinceSnapshot++;
+            if (writerWaiting) hasWork.signal();
+        } finally {
+            queueLock.unlock();
+        }
+        threadState.get()[1] = seq;
+    }
+
+    private long pendingSinceSnapshot() {
+        queueLock.lock();
+        try {
+            return sinceSnapshot;
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    private void writeLoop() {
+        List<Object> batch = new ArrayList<>();
+        while (true) {
+            long upTo;
+            queueLock.lock();
+            try {
+                while (queue.isEmpty()) {
+                    writerWaiting = true;
+                    hasWork.awaitUninterruptibly();
+                }
+                writerWaiting = false;
+                batch.addAll(queue);
+                queue.clear();
+                upTo = appended;
+            } finally {
+                queueLock.unlock();
+            }
+
+            try {
+                ByteArrayOutputStream buf = new ByteArrayOutputStream();
+                for (Object item : batch) {
+                    if (item instanceof byte[] framed) {
+                        buf.write(framed);
+                    } else if (item instanceof Rotate r) {
+                        flushTo(buf);
+                        channel.close();
+                        channel = openSegment(r.segment());
+                        r.done().complete(null);
+                    }
+                }
+                flushTo(buf);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            batch.clear();
+
+            queueLock.lock();
+            try {
+                durable = upTo;
+                flushed.signalAll();
+            } finally {
+                queueLock.unlock();
+            }
+        }
+    }
+
+    private void flushTo(ByteArrayOutputStream buf) throws IOException {
+        if (buf.size() == 0) return;
+        ByteBuffer bb = ByteBuffer.wrap(buf.toByteArray());
+        while (bb.hasRemaining()) channel.write(bb);
+        if (SYNC) channel.force(false);
+        buf.reset();
+    }
+
+    private FileChannel openSegment(int n) throws IOException {
+        return FileChannel.open(dir.resolve(String.format("wal-%06d.log", n)),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /* ============================ Snapshots ============================ */
+
+    // writes the whole state as snapshot-<n>.bin and deletes the log segments it replaces
+    public void snapshot() throws IOException {
+        if (!enabled || dumper == null) return;
+
+        Encoder image = new Encoder();
+        Rotate rotate;
+        snapshotLock.writeLock().lock();
+        try {
+            queueLock.lock();
+            try {
+                rotate = new Rotate(++segment, new CompletableFuture<>());
+                queue.add(rotate);
+                sinceSnapshot = 0;
+                if (writerWaiting) hasWork.signal();
+            } finally {
+                queueLock.unlock();
+            }
+            dumper.accept(image);
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+        image.end();
+
+        Path tmp = dir.resolve("snapshot.tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bb = ByteBuffer.wrap(image.toByteArray());
+            while (bb.hasRemaining()) ch.write(bb);
+            ch.force(true);
+        }
+        Files.move(tmp, dir.resolve(String.format("snapshot-%06d.bin", rotate.segment())),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        rotate.done().join();
+        for (Path p : numbered("wal-", ".log").headMap(rotate.segment()).values()) Files.deleteIfExists(p);
+        for (Path p : numbered("snapshot-", ".bin").headMap(rotate.segment()).values()) Files.deleteIfExists(p);
+    }
+
+    /* ============================ Records ============================ */
+
+    @Override
+    public void putVehicle(String vehicleID, String vehicleType, int vehicleNumber, double price) {
+        if (!enabled) return;
+        Encoder e = new Encoder();
+        e.putVehicle(vehicleID, vehicleType, vehicleNumber, price);
+        append(e);
+    }
+
+    @Override
+    public void removeVehicle(String vehicleID) {
+        if (!enabled) return;
+        Encoder e = new Encoder();
+        e.removeVehicle(vehicleID);
+        append(e);
+    }
+
+    @Override
+    public void reserve(String vehicleID, String customerID, int startDay, int endDay) {
+        if (!enabled) return;
+        Encoder e = new Encoder();
+        e.reserve(vehicleID, customerID, startDay, endDay);
+        append(e);
+    }
+
+    @Override
+    public void cancel(String vehicleID, String customerID, int startDay, int endDay) {
+        if (!enabled) return;
+        Encoder e = new Encoder();
+        e.cancel(vehicleID, customerID, startDay, endDay);
+        append(e);
+    }
+
+    @Override
+    public void waitlistAdd(String vehicleID, String customerID, int startDay, int endDay) {
+        if (!enabled) return;
+        Encoder e = new Encoder();
+        e.waitlistAdd(vehicleID, customerID, startDay, endDay);
+        append(e);
+    }
+
+    @Override
+    public void waitlistRemove(String vehicleID, String customerID, int startDay, int endDay) {
+        if (!enabled) return;
+        Encoder e = new Encoder();
+        e.waitlistRemove(vehicleID, customerID, startDay, endDay);
+        append(e);
+    }
+
+    @Override
+    public void budget(String customerID, long deltaCents) {
+        if (!enabled) return;
+        Encoder e = new Encoder();
+        e.budget(customerID, deltaCents);
+        append(e);
+    }
+
+    @Override
+    public void remoteOffice(String customerID, String office, boolean held) {
+        if (!enabled) return;
+        Encoder e = new Encoder();
+        e.remoteOffice(customerID, office, held);
+        append(e);
+    }
+
+    // frames records into a byte array: one record for the log, the whole state for a snapshot
+    private static final class Encoder implements StateChanges {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        private final ByteArrayOutputStream scratch = new ByteArrayOutputStream(64);
+        private final DataOutputStream payload = new DataOutputStream(scratch);
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+
+        void end() {
+            frame(p -> p.writeByte(END));
+        }
+
+        private interface Body {
+            void write(DataOutputStream p) throws IOException;
+        }
+
+        private void frame(Body body) {
+            try {
+                scratch.reset();
+                body.write(payload);
+                payload.flush();
+                byte[] bytes = scratch.toByteArray();
+                DataOutputStream o = new DataOutputStream(out);
+                o.writeInt(bytes.length);
+                o.writeInt(crc(bytes));
+                o.write(bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); // in-memory streams do not fail
+            }
+        }
+
+        @Override
+        public void putVehicle(String vehicleID, String vehicleType, int vehicleNumber, double price) {
+            frame(p -> {
+                p.writeByte(PUT_VEHICLE);
+                p.writeUTF(vehicleID);
+                p.writeUTF(vehicleType);
+                p.writeInt(vehicleNumber);
+                p.writeDouble(price);
+            });
+        }
+
+        @Override
+        public void removeVehicle(String vehicleID) {
+            frame(p -> {
+                p.writeByte(REMOVE_VEHICLE);
+                p.writeUTF(vehicleID);
+            });
+        }
+
+        @Override
+        public void reserve(String vehicleID, String customerID, int startDay, int endDay) {
+            booking(RESERVE, vehicleID, customerID, startDay, endDay);
+        }
+
+        @Override
+        public void cancel(String vehicleID, String customerID, int startDay, int endDay) {
+            booking(CANCEL, vehicleID, customerID, startDay, endDay);
+        }
+
+        @Override
+        public void waitlistAdd(String vehicleID, String customerID, int startDay, int endDay) {
+            booking(WAIT_ADD, vehicleID, customerID, startDay, endDay);
+        }
+
+        @Override
+        public void waitlistRemove(String vehicleID, String customerID, int startDay, int endDay) {
+            booking(WAIT_REMOVE, vehicleID, customerID, startDay, endDay);
+        }
+
+        private void booking(byte type, String vehicleID, String customerID, int startDay, int endDay) {
+            frame(p -> {
+                p.writeByte(type);
+                p.writeUTF(vehicleID);
+                p.writeUTF(customerID);
+                p.writeInt(startDay);
+                p.writeInt(endDay);
+            });
+        }
+
+        @Override
+        public void budget(String customerID, long deltaCents) {
+            frame(p -> {
+                p.writeByte(BUDGET);
+                p.writeUTF(customerID);
+                p.writeLong(deltaCents);
+            });
+        }
+
+        @Override
+        public void remoteOffice(String customerID, String office, boolean held) {
+            frame(p -> {
+                p.writeByte(REMOTE);
+                p.writeUTF(customerID);
+                p.writeUTF(office);
+                p.writeBoolean(held);
+            });
+        }
+    }
+}
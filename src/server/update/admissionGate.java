@@ -0,0 +1,72 @@
+package server.update;
+
+import server.metrics.Histogram;
+import server.metrics.Metrics;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Admission control for the public (RMI) operations of one office. At most maxConcurrent calls run
+// at once; up to maxQueued more wait for a slot, each for queueMillis at most. A call beyond that is
+// turned away at once with BUSY_TEXT, so a spike costs the callers over the limit a quick answer they
+// can retry instead of slowing down every customer and piling up RMI threads behind the vehicle locks.
+//
+// Tuning (system properties):
+//   dvrms.admit.maxConcurrent  operations running at once (default 4 x cores, 0 = no limit)
+//   dvrms.admit.maxQueued      operations waiting for a slot (default 256)
+//   dvrms.admit.queueMillis    longest wait for a slot before giving up (default 500)
+final class admissionGate {
+    private static final int MAX_CONCURRENT =
+            Integer.getInteger("dvrms.admit.maxConcurrent", 4 * Runtime.getRuntime().availableProcessors());
+    private static final int MAX_QUEUED = Integer.getInteger("dvrms.admit.maxQueued", 256);
+    private static final long QUEUE_MILLIS = Long.getLong("dvrms.admit.queueMillis", 500);
+
+    static final String BUSY_TEXT = "ERR|Busy: the office is at capacity, please retry shortly.";
+
+    private final Semaphore slots = new Semaphore(Math.max(1, MAX_CONCURRENT), true);
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Metrics metrics;
+    private final Histogram wait;
+
+    admissionGate(Metrics metrics) {
+        this.metrics = metrics;
+        this.wait = metrics.histogram("admit.wait");
+        metrics.gauge("admit.inFlight", () -> MAX_CONCURRENT <= 0 ? 0 : MAX_CONCURRENT - slots.availablePermits());
+        metrics.gauge("admit.queued", queued::get);
+    }
+
+    // true when the caller may run, and must call exit() afterwards; false when it is turned away
+    boolean enter() {
+        if (MAX_CONCURRENT <= 0) return true;
+        if (slots.tryAcquire()) {
+            wait.record(0);
+            return true;
+        }
+        if (queued.incrementAndGet() > MAX_QUEUED) {
+            queued.decrementAndGet();
+            return reject();
+        }
+
+        long start = System.nanoTime();
+        try {
+            if (!slots.tryAcquire(QUEUE_MILLIS, TimeUnit.MILLISECONDS)) return reject();
+            wait.record(System.nanoTime() - start);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return reject();
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    void exit() {
+        if (MAX_CONCURRENT > 0) slots.release();
+    }
+
+    private boolean reject() {
+        metrics.counter("admit.rejected").increment();
+        return false;
+    }
+}
@@ -0,0 +1,74 @@
+package server.update;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Peer FIND answers kept by the asking office, one entry per (peer office, lower-cased type).
+// An entry goes when it is older than the TTL, when it is the least recently used one over
+// the size bound, or when the peer announces a newer inventory version of its type.
+//
+// A FIND that was in flight while an announcement came in is not stored: callers take the
+// version before asking and put() drops the answer if the version has moved since.
+//
+// Tuning (system properties):
+//   dvrms.find.cacheTtlMillis  longest an answer is reused (default 30000, 0 = no cache)
+//   dvrms.find.cacheEntries    most answers kept (default 1024)
+final class findCache {
+    private static final long TTL_NANOS = Long.getLong("dvrms.find.cacheTtlMillis", 30_000) * 1_000_000;
+    private static final int MAX_ENTRIES = Integer.getInteger("dvrms.find.cacheEntries", 1024);
+
+    private record Entry(String text, long expiresAt) {
+    }
+
+    // access order, so the eldest entry is the least recently used
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    // latest inventory version announced per key; one per type a peer has changed, so it stays small
+    private final HashMap<String, Long> versions = new HashMap<>();
+
+    private static String key(String office, String typeKey) {
+        return office + "|" + typeKey;
+    }
+
+    // the cached answer, or null
+    synchronized String get(String office, String typeKey) {
+        if (TTL_NANOS <= 0) return null;
+        String k = key(office, typeKey);
+        Entry e = entries.get(k);
+        if (e == null) return null;
+        if (System.nanoTime() - e.expiresAt > 0) {
+            entries.remove(k);
+            return null;
+        }
+        return e.text();
+    }
+
+    // to be taken before asking the peer and handed back to put()
+    synchronized long version(String office, String typeKey) {
+        return versions.getOrDefault(key(office, typeKey), 0L);
+    }
+
+    synchronized void put(String office, String typeKey, long version, String text) {
+        if (TTL_NANOS <= 0) return;
+        String k = key(office, typeKey);
+        if (versions.getOrDefault(k, 0L) != version) return; // the peer changed the type meanwhile
+        entries.put(k, new Entry(text, System.nanoTime() + TTL_NANOS));
+    }
+
+    // announcements can arrive late or twice; only a newer version drops the entry
+    synchronized void invalidate(String office, String typeKey, long version) {
+        String k = key(office, typeKey);
+        if (version <= versions.getOrDefault(k, 0L)) return;
+        versions.put(k, version);
+        entries.remove(k);
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+}
@@ -1,37 +1,145 @@
 package server.update;
 
+import common.BookingRequest;
 import common.DVRMS;
 import common.IdCheck;
+import server.model.BudgetLedger;
+import server.model.CustomerIndex;
 import server.model.Reservation;
 import server.model.vehicleRecord;
 import server.model.WaitingList;
+import server.model.WaitlistIndex;
+import server.metrics.Histogram;
+import server.metrics.Metrics;
+import server.persist.StateChanges;
+import server.persist.StateJournal;
 import common.Logger;
+import common.Topology;
 
 
 
+import java.io.IOException;
 import java.rmi.RemoteException;
+import java.nio.file.Path;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 public class officeServer extends UnicastRemoteObject implements DVRMS {
     private final String office; //MTL, WPG, BNF
 
     private final ConcurrentHashMap<String, vehicleRecord> vehicles = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, Double> budgets = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, Set<String>> remoteOfficeReservations = new ConcurrentHashMap<>();
-
+    // lower-cased vehicle type -> IDs of the vehicles of that type
+    // sorted, so a paged FIND can resume after the last ID it sent
+    private final ConcurrentHashMap<String, NavigableSet<String>> vehiclesByType = new ConcurrentHashMap<>();
+    // customerID -> local vehicles booked and remote offices booked through here
+    private final CustomerIndex customers = new CustomerIndex();
+
+    private final udpClient udp;
+    private final udpDispatcher dispatcher;
+    private final StateJournal journal;
+    private final Topology topology;
+    private final Metrics metrics;
+    private final Histogram lockWait;
+    private final admissionGate admission;
+
+    // peers' FIND answers, dropped when a peer announces a change to the type
+    private final findCache peerFinds = new findCache();
+    // version of this office's inventory sent with every announcement; starts at the clock so it
+    // keeps growing across restarts and peers never take a new announcement for an old one
+    private final AtomicLong inventoryVersion = new AtomicLong(System.currentTimeMillis());
+
+    // seats held for other offices' customers, by transaction, until the customer's office decides
+    private record seatHold(String customerID, String vehicleID, int startDay, int endDay, long cents) {
+    }
+    private final ConcurrentHashMap<String, seatHold> holds = new ConcurrentHashMap<>();
+    // the same holds counted by seat, so telling a held reservation from a committed one is O(1);
+    // changed only through putHold and dropHold
+    private record seatKey(String vehicleID, Reservation reservation) {
+    }
+    private final ConcurrentHashMap<seatKey, Integer> heldSeats = new ConcurrentHashMap<>();
+    // price of other offices' customers' cancelled seats by "customer|vehicle", so a cancel sent
+    // again after a lost answer still tells the customer's office what to give back
+    private final Map<String, Long> cancelledSeats = recent(4096);
+    // what this office answered to each CONFIRM, so one sent again is not paid twice
+    private final Map<String, wireCodec.Reply> confirmed = recent(4096);
+    // transaction IDs start at the clock, so they are not reused after a restart
+    private final AtomicLong nextTxn = new AtomicLong(System.currentTimeMillis() * 1000);
+    // hold expiry and the retries of decisions whose answer was lost
+    private final ScheduledExecutorService txnTimer;
 
     private static final double defaultBudget = 1000.0; //set the default budget as 1000$
+    private final BudgetLedger budgets = new BudgetLedger(BudgetLedger.toCents(defaultBudget));
+
+    // how long a cross-office FIND waits for the slowest peer before answering with what it has
+    private static final long FIND_DEADLINE_MILLIS = Long.getLong("dvrms.find.deadlineMillis", 1500);
+    // who gets freed capacity first: STRICT_FIFO or OVERLAP_FIFO (see WaitlistIndex)
+    private static final WaitlistIndex.Policy WAITLIST_POLICY =
+            WaitlistIndex.Policy.parse(System.getProperty("dvrms.waitlist.policy", "OVERLAP_FIFO"));
+    // items per inter-office batch message, so each reply stays well inside one datagram
+    private static final int BATCH_ITEMS = Integer.getInteger("dvrms.batch.maxItems", 50);
+    // room for vehicle lines in one FIND reply after the frame header, status and continuation
+    private static final int FIND_PAGE_BYTES = Math.max(64, wireCodec.MAX_PAYLOAD - 32);
+    // how long a seat stays held for another office that neither commits nor aborts
+    private static final long HOLD_MILLIS = Long.getLong("dvrms.txn.holdMillis", 10_000);
+    // pause between two attempts to get a lost COMMIT, CONFIRM or REFUND answered, and how many attempts
+    private static final long SETTLE_RETRY_MILLIS = Long.getLong("dvrms.txn.retryMillis", 2_000);
+    private static final int SETTLE_ATTEMPTS = Integer.getInteger("dvrms.txn.retries", 30);
+    // answer to a one-phase RESERVE or RESERVE_BATCH, followed by the office code
+    static final String UPGRADE_REQUIRED_TEXT = "ERR|Upgrade required: office ";
 
     private void logServer(String op, String params, String result) {
         Logger.log("logs/server_" + office + ".txt",
                 op + " | " + params + " | result=" + result);
     }
 
-    private void ensureBudget(String customerID) {
-        if (!budgets.containsKey(customerID)) {
-            budgets.put(customerID, defaultBudget);
+    private static String typeKey(String vehicleType) {
+        return vehicleType.toLowerCase(Locale.ROOT);
+    }
+
+    // each key is changed inside compute, so an emptied set is never dropped under a concurrent add
+    private void indexType(String vehicleType, String vehicleID) {
+        vehiclesByType.compute(typeKey(vehicleType), (k, ids) -> {
+            if (ids == null) ids = new ConcurrentSkipListSet<>();
+            ids.add(vehicleID);
+            return ids;
+        });
+    }
+
+    private void unindexType(String vehicleType, String vehicleID) {
+        vehiclesByType.computeIfPresent(typeKey(vehicleType), (k, ids) -> {
+            ids.remove(vehicleID);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    // tells every peer that this office's vehicles of the type changed, so cached FINDs of it go;
+    // sent while the vehicle lock is held, so versions follow the order of the changes
+    private void announceInventory(String vehicleType) {
+        wireCodec.Invalidate msg = new wireCodec.Invalidate(office, typeKey(vehicleType), inventoryVersion.incrementAndGet());
+        for (String off : topology.codes()) {
+            if (!off.equals(office)) udp.request(off, msg); // retried by udpClient, otherwise the TTL covers it
         }
     }
 
@@ -39,158 +147,345 @@ public class officeServer extends UnicastRemoteObject implements DVRMS {
         return office.equals(IdCheck.officeLocation(id));
     }
 
-    private void startUdpListener() {
-        Thread t = new Thread(() -> {
-            try (java.net.DatagramSocket socket = new java.net.DatagramSocket(udpPort())) {
-                byte[] buf = new byte[4096];
-                while (true) {
-                    java.net.DatagramPacket req = new java.net.DatagramPacket(buf, buf.length);
-                    socket.receive(req);
+    // peak number of reservations on any day of the given date range (interval index, O(log days))
+    static int countOverlapping(vehicleRecord v, int startDay, int endDay) {
+        return v.maxConcurrent(startDay, endDay);
+    }
 
-                    String msg = new String(req.getData(), 0, req.getLength()).trim();
-                    String reply = handleUdpRequest(msg);
+    // assign every waiting request that now fits, in one pass under the vehicle lock the caller holds
+    int tryAssignFromWaitlist(vehicleRecord v) {
+        if (v.vehicleNumber <= 0) return 0;
+        long cents = BudgetLedger.toCents(v.price);
 
-                    byte[] out = reply.getBytes();
-                    java.net.DatagramPacket resp = new java.net.DatagramPacket(
-                            out, out.length, req.getAddress(), req.getPort()
-                    );
-                    socket.send(resp);
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
+        return v.waitlist.drain(WAITLIST_POLICY, w -> {
+            // 1) check capacity for the waiting request
+            if (countOverlapping(v, w.startDay(), w.endDay()) >= v.vehicleNumber) return WaitlistIndex.Outcome.NO_ROOM;
+
+            // 2) check and take budget; drop the request rather than keep it waiting forever
+            journal.waitlistRemove(v.vehicleID, w.customerID(), w.startDay(), w.endDay());
+            if (!isLocalUser(w.customerID())) {
+                // paid at the customer's office: the seat is held until that office confirms
+                String txn = newTxn();
+                askToPay(txn, holdSeat(v, txn, w.customerID(), w.startDay(), w.endDay()));
+                metrics.counter("waitlist.assigned").increment();
+                return WaitlistIndex.Outcome.ASSIGNED;
+            }
+            if (!budgets.tryDebit(w.customerID(), cents)) {
+                metrics.counter("waitlist.dropped").increment();
+                return WaitlistIndex.Outcome.DROPPED;
             }
+
+            // 3) assign it
+            v.addReservation(new Reservation(w.customerID(), w.startDay(), w.endDay()));
+            journal.budget(w.customerID(), -cents);
+            journal.reserve(v.vehicleID, w.customerID(), w.startDay(), w.endDay());
+            metrics.counter("waitlist.assigned").increment();
+            return WaitlistIndex.Outcome.ASSIGNED;
         });
-        t.setDaemon(true);
-        t.start();
     }
 
-    // count how many existing reservations overlap with the given date range
-    private int countOverlapping(vehicleRecord v, String startDate, String endDate) {
-        int count = 0;
-        for (Reservation r : v.reservations) {
-            if (r.overlaps(startDate, endDate)) count++;
-        }
-        return count;
-    }
+    private Object handleUdpRequest(Object req) {
+        try {
+            if (req instanceof wireCodec.Find f) {
+                // only search local office; an empty list is still an answer
+                if (f.after() == null) {
+                    return new wireCodec.Reply(wireCodec.Status.OK, findVehicleLocalOnly(f.vehicleType()));
+                }
+                return findVehiclePage(f.vehicleType(), f.after(), FIND_PAGE_BYTES);
+            }
 
-    // add to the waitlist first queue (FIFO)
-    private int tryAssignFromWaitlist(vehicleRecord v) {
-        int assigned = 0;
+            if (req instanceof wireCodec.Invalidate i) {
+                peerFinds.invalidate(i.office(), i.vehicleType(), i.version());
+                return new wireCodec.Reply(wireCodec.Status.OK, "SUCCESS|");
+            }
 
-        while (!v.waitlist.isEmpty()) {
-            WaitingList w = v.waitlist.peekFirst();
+            if (req instanceof wireCodec.Available a) {
+                if (a.after() == null) {
+                    return new wireCodec.Reply(wireCodec.Status.OK,
+                            findAvailableLocalOnly(a.vehicleType(), a.startDay(), a.endDay()));
+                }
+                return findAvailablePage(a.vehicleType(), a.startDay(), a.endDay(), a.after(), FIND_PAGE_BYTES);
+            }
 
-            // 1) check capacity for the waiting request
-            if (v.vehicleNumber <= 0) break;
-            int overlapCount = countOverlapping(v, w.startDate(), w.endDate());
-            if (overlapCount >= v.vehicleNumber) break; // FIFO: head cannot be satisfied now
+            if (req instanceof wireCodec.Reserve || req instanceof wireCodec.ReserveBatch) {
+                // only offices from before two-phase booking send these; serving one would take the
+                // money here, away from the customer's own office
+                return new wireCodec.Reply(wireCodec.Status.ERROR, UPGRADE_REQUIRED_TEXT + office
+                        + " books remote reservations in two phases (PREPARE/COMMIT); the customer's office must be upgraded.");
+            }
 
-            // 2) check budget
-            ensureBudget(w.customerID());
-            double remaining = budgets.get(w.customerID());
-            if (remaining < v.price) {
-                v.waitlist.removeFirst(); // drop this request to avoid blocking queue forever
-                continue;
+            if (req instanceof wireCodec.Prepare p) {
+                return prepareSeat(p.txn(), p.item());
             }
 
-            // 3) assign it
-            budgets.put(w.customerID(), remaining - v.price);
-            v.reservations.add(new Reservation(w.customerID(), w.startDate(), w.endDate()));
-            v.waitlist.removeFirst();
-            assigned++;
-        }
+            if (req instanceof wireCodec.PrepareBatch p) {
+                // like RESERVE_BATCH: once an item is held the rest are refused
+                List<wireCodec.Reply> out = new ArrayList<>(p.batch().items().size());
+                boolean held = false;
+                for (wireCodec.Reserve r : p.batch().items()) {
+                    wireCodec.Reply one = held
+                            ? new wireCodec.Reply(wireCodec.Status.FAIL, "FAIL|You can only reserve one vehicle from office " + office)
+                            : prepareSeat(p.txn(), r);
+                    held |= one.ok();
+                    out.add(one);
+                }
+                return new wireCodec.BatchReply(out);
+            }
 
-        return assigned;
-    }
+            if (req instanceof wireCodec.Commit c) {
+                return commitSeat(c.txn(), c.item());
+            }
 
-    private String handleUdpRequest(String msg) {
-        try {
-            String[] p = msg.split("\\|");
-            String op = p[0];
+            if (req instanceof wireCodec.Abort a) {
+                releaseSeat(a.txn(), "txn.aborted");
+                return new wireCodec.Reply(wireCodec.Status.OK, "SUCCESS|");
+            }
 
-            if ("FIND".equals(op)) {
-                return findVehicleLocalOnly(p[1]); // only search local office
+            if (req instanceof wireCodec.Confirm c) {
+                return payForSeat(c);
             }
 
-            if ("RESERVE".equals(op)) {
-                boolean wantWaitlist = true;
-                if (p.length >= 6) {
-                    wantWaitlist = Boolean.parseBoolean(p[5]);
-                }
-                return reserveVehicleLocalOnly(p[1], p[2], p[3], p[4], wantWaitlist); // reservation in the local office only
+            if (req instanceof wireCodec.Refund f) {
+                refundRemote(f.customerID(), officeOfVehicle(f.vehicleID()), f.cents());
+                return new wireCodec.Reply(wireCodec.Status.OK, "SUCCESS|");
+            }
+
+            if (req instanceof wireCodec.Update u) {
+                return wireCodec.Reply.of(updateReservationLocalOnly(u.customerID(), u.vehicleID(), u.startDay(), u.endDay()));
             }
 
-            if ("CANCEL".equals(op)) {
-                return cancelReservationLocalOnly(p[1], p[2]);
+            if (req instanceof wireCodec.Cancel c) {
+                return wireCodec.Reply.of(cancelReservationLocalOnly(c.customerID(), c.vehicleID()));
             }
 
-            return "ERR|UnknownOp";
+            if (req instanceof wireCodec.ListReservations l) {
+                return new wireCodec.Reply(wireCodec.Status.OK, listReservationsLocalOnly(l.customerID()));
+            }
+
+            if (req instanceof wireCodec.CancelBatch b) {
+                List<wireCodec.Reply> out = new ArrayList<>(b.vehicleIDs().size());
+                for (String vehicleID : b.vehicleIDs()) {
+                    out.add(wireCodec.Reply.of(cancelReservationLocalOnly(b.customerID(), vehicleID)));
+                }
+                return new wireCodec.BatchReply(out);
+            }
+
+            return new wireCodec.Reply(wireCodec.Status.ERROR, "ERR|UnknownOp");
         } catch (Exception e) {
-            return "ERR|" + e.getMessage();
+            return new wireCodec.Reply(wireCodec.Status.ERROR, "ERR|" + e.getMessage());
+        }
+    }
+
+    // blocks until the peer replies or the client gives up after its retries
+    private wireCodec.Reply udpRequest(String targetOffice, Object req) throws Exception {
+        try {
+            return udp.request(targetOffice, req).get();
+        } catch (ExecutionException e) {
+            throw (e.getCause() instanceof Exception cause) ? cause : e;
         }
     }
 
-    private String udpRequest(String targetOffice, String msg) throws Exception {
-        int port = portOfOffice(targetOffice);
-        try (java.net.DatagramSocket socket = new java.net.DatagramSocket()) {
-            byte[] data = msg.getBytes();
-            java.net.DatagramPacket req = new java.net.DatagramPacket(
-                    data, data.length, java.net.InetAddress.getByName("localhost"), port
-            );
-            socket.send(req);
+    // appends the line of one vehicle; false, with nothing appended, when the vehicle does not qualify
+    private interface lineWriter {
+        boolean append(StringBuilder sb, String vehicleID);
+    }
+
+    String findVehicleLocalOnly(String vehicleType) {
+        return allLines(vehicleType, (sb, id) -> appendFindLine(sb, id, vehicleType));
+    }
 
-            byte[] buf = new byte[4096];
-            java.net.DatagramPacket resp = new java.net.DatagramPacket(buf, buf.length);
-            socket.receive(resp);
+    wireCodec.Reply findVehiclePage(String vehicleType, String after, int maxBytes) {
+        return linePage(vehicleType, after, maxBytes, (sb, id) -> appendFindLine(sb, id, vehicleType));
+    }
 
-            return new String(resp.getData(), 0, resp.getLength()).trim();
-        }
+    String findAvailableLocalOnly(String vehicleType, int startDay, int endDay) {
+        return allLines(vehicleType, (sb, id) -> appendAvailableLine(sb, id, vehicleType, startDay, endDay));
     }
 
-    private String findVehicleLocalOnly(String vehicleType) {
+    wireCodec.Reply findAvailablePage(String vehicleType, int startDay, int endDay, String after, int maxBytes) {
+        return linePage(vehicleType, after, maxBytes,
+                (sb, id) -> appendAvailableLine(sb, id, vehicleType, startDay, endDay));
+    }
+
+    // one line per local vehicle of the type, by vehicle ID
+    private String allLines(String vehicleType, lineWriter line) {
+        Set<String> ids = vehiclesByType.get(typeKey(vehicleType));
+        if (ids == null) return "";
+
         StringBuilder sb = new StringBuilder();
-        for (var v : vehicles.values()) {
-            if (!v.vehicleType.equalsIgnoreCase(vehicleType)) continue;
+        for (String id : ids) line.append(sb, id);
+        return sb.toString();
+    }
+
+    // one page for a peer: the lines of the vehicles after the given ID, up to maxBytes of UTF-8 text;
+    // always at least one vehicle, so the caller keeps moving even with a tiny page size
+    private wireCodec.Reply linePage(String vehicleType, String after, int maxBytes, lineWriter line) {
+        NavigableSet<String> ids = vehiclesByType.get(typeKey(vehicleType));
+        if (ids == null) return new wireCodec.Reply(wireCodec.Status.OK, "");
+
+        StringBuilder sb = new StringBuilder();
+        int bytes = 0;
+        String last = null;
+        for (String id : after.isEmpty() ? ids : ids.tailSet(after, false)) {
+            int mark = sb.length();
+            if (!line.append(sb, id)) continue;
+
+            // IDs and types are ASCII in practice; count exactly anyway
+            int lineBytes = utf8Length(sb, mark);
+            if (last != null && bytes + lineBytes + id.length() > maxBytes) {
+                sb.setLength(mark);
+                return new wireCodec.Reply(wireCodec.Status.OK, sb.toString(), last);
+            }
+            bytes += lineBytes;
+            last = id;
+        }
+        return new wireCodec.Reply(wireCodec.Status.OK, sb.toString());
+    }
+
+    private boolean appendFindLine(StringBuilder sb, String id, String vehicleType) {
+        vehicleRecord v = vehicles.get(id);
+        if (v == null) return false;
+        // the type may be changing right now; the record itself decides
+        vehicleRecord.Listing l = v.listing();
+        if (!l.vehicleType().equalsIgnoreCase(vehicleType)) return false;
+
+        // Availability status based on inventory quantity.
+        String status = (l.vehicleNumber() > 0) ? "Available" : "Reserved";
+        sb.append(v.vehicleID).append(" ")
+                .append(l.vehicleType()).append(" ")
+                .append(status).append(" ")
+                .append(l.price()).append(" ")
+                .append(office)
+                .append("\n");
+        return true;
+    }
+
+    // "<vehicleID> <type> <free>/<quantity> free <price> <office>", then the free units day by day
+    // when they change within the range: " [01022026-03022026:1, 04022026-05022026:2]"
+    private boolean appendAvailableLine(StringBuilder sb, String id, String vehicleType, int startDay, int endDay) {
+        vehicleRecord v = vehicles.get(id);
+        if (v == null) return false;
+        vehicleRecord.Availability a = v.availability(startDay, endDay);
+        vehicleRecord.Listing l = a.listing();
+        if (!l.vehicleType().equalsIgnoreCase(vehicleType)) return false;
+
+        sb.append(v.vehicleID).append(" ")
+                .append(l.vehicleType()).append(" ")
+                .append(a.free()).append("/").append(l.vehicleNumber()).append(" free ")
+                .append(l.price()).append(" ")
+                .append(office);
+        if (a.runs().size() > 1) {
+            sb.append(" [");
+            for (int i = 0; i < a.runs().size(); i++) {
+                vehicleRecord.FreeRun r = a.runs().get(i);
+                if (i > 0) sb.append(", ");
+                sb.append(Reservation.formatDay(r.startDay())).append("-")
+                        .append(Reservation.formatDay(r.endDay())).append(":").append(r.free());
+            }
+            sb.append("]");
+        }
+        sb.append("\n");
+        return true;
+    }
 
-            // Availability status based on inventory quantity.
-            String status = (v.vehicleNumber > 0) ? "Available" : "Reserved";
-            sb.append(v.vehicleID).append(" ")
-                    .append(v.vehicleType).append(" ")
-                    .append(status).append(" ")
-                    .append((double) v.price).append(" ")
-                    .append(office)
-                    .append("\n");
+    private static int utf8Length(CharSequence s, int from) {
+        int n = 0;
+        for (int i = from; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) n++;
+            else if (c < 0x800) n += 2;
+            else if (Character.isHighSurrogate(c)) { n += 4; i++; }
+            else n += 3;
         }
-        return sb.length() == 0 ? "" : sb.toString();
+        return n;
     }
 
-    private String cancelReservationLocalOnly(String customerID, String vehicleID) throws RemoteException {
+    // a peer's whole FIND answer, from the cache while the peer has announced no change to the type
+    private CompletableFuture<String> findRemote(String targetOffice, String vehicleType) {
+        String key = typeKey(vehicleType);
+        String cached = peerFinds.get(targetOffice, key);
+        if (cached != null) {
+            metrics.counter("find.cache.hit").increment();
+            return CompletableFuture.completedFuture(cached);
+        }
+        metrics.counter("find.cache.miss").increment();
+
+        long version = peerFinds.version(targetOffice, key);
+        return remotePages(targetOffice, after -> new wireCodec.Find(vehicleType, after), "", new StringBuilder())
+                .thenApply(text -> {
+                    peerFinds.put(targetOffice, key, version, text);
+                    return text;
+                });
+    }
+
+    // every page of a peer's FIND or AVAILABLE, requested one after the other and joined in order;
+    // pageAt makes the request for the page after the given vehicle ID
+    private CompletableFuture<String> remotePages(String targetOffice, Function<String, Object> pageAt,
+                                                  String after, StringBuilder acc) {
+        return udp.request(targetOffice, pageAt.apply(after)).thenCompose(r -> {
+            if (r.status() == wireCodec.Status.ERROR || r.status() == wireCodec.Status.BUSY) {
+                return CompletableFuture.failedFuture(new IOException(r.text()));
+            }
+            acc.append(r.text());
+            return r.next().isEmpty()
+                    ? CompletableFuture.completedFuture(acc.toString())
+                    : remotePages(targetOffice, pageAt, r.next(), acc);
+        });
+    }
+
+    // "<vehicleID> <start> <end> <office>" per reservation the customer holds here, by vehicle ID
+    String listReservationsLocalOnly(String customerID) {
+        StringBuilder sb = new StringBuilder();
+        for (String vehicleID : new TreeSet<>(customers.vehiclesOf(customerID))) {
+            vehicleRecord v = vehicles.get(vehicleID);
+            if (v == null) continue;
+            for (Reservation r : v.reservationsOf(customerID)) {
+                sb.append(vehicleID).append(" ")
+                        .append(r.startDate()).append(" ")
+                        .append(r.endDate()).append(" ")
+                        .append(office)
+                        .append("\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    String cancelReservationLocalOnly(String customerID, String vehicleID) throws RemoteException {
         vehicleRecord v = vehicles.get(vehicleID);
         if (v == null) return "FAIL|No reservation found for " + vehicleID;
 
         // Lock vehicle record to prevent concurrent reserve/update/cancel
-        v.lock.lock();
+        journal.enter();
+        lockVehicle(v);
         try {
-            Reservation target = null;
-            for (Reservation r : v.reservations) {
-                if (r.customerID().equals(customerID)) {
-                    target = r;
-                    break;
-                }
-            }
+            boolean local = isLocalUser(customerID);
+            Reservation target = v.reservationOf(customerID);
             if (target == null) {
+                Long paid = local ? null : cancelledSeats.get(customerID + "|" + vehicleID);
+                if (paid != null) return cancelledText(vehicleID, customerID, paid, 0); // cancel sent again
                 return "FAIL|Sorry there is no reservation found for customer ID: " + customerID
                         + " on vehicle " + vehicleID + ".";
             }
-            v.reservations.remove(target);
-
-            ensureBudget(customerID);
-            budgets.put(customerID, budgets.get(customerID) + v.price);
+            if (!local && isHeld(vehicleID, target)) {
+                return "FAIL|The reservation of " + vehicleID + " is not confirmed yet.";
+            }
+            v.removeReservation(target);
+            journal.cancel(vehicleID, customerID, target.startDay(), target.endDay());
+
+            // another office's customer is refunded by that office, from the price in the answer
+            long cents = BudgetLedger.toCents(v.price);
+            if (local) {
+                budgets.credit(customerID, cents);
+                journal.budget(customerID, cents);
+            } else {
+                cancelledSeats.put(customerID + "|" + vehicleID, cents);
+            }
 
             int assigned = tryAssignFromWaitlist(v);
 
-            String res = "SUCCESS|Reservation cancelled for " + vehicleID + " at office " + office + " by " + customerID
-                    + ". Auto-assigned from waitlist: " + assigned;
+            String res = local
+                    ? cancelledText(vehicleID, customerID, -1, assigned)
+                    : cancelledText(vehicleID, customerID, cents, assigned);
 
             logServer("cancleReservation",
                     "customerID=" + customerID + ", vehicleID=" + vehicleID, res);
@@ -198,114 +493,648 @@ public class officeServer extends UnicastRemoteObject implements DVRMS {
             return res;
         } finally {
             v.lock.unlock();
+            journal.exit();
         }
     }
 
-    private String reserveVehicleLocalOnly(String customerID, String vehicleID, String startDate, String endDate, boolean wantWaitlist) throws RemoteException {
-
-        ensureBudget(customerID);
+    String reserveVehicleLocalOnly(String customerID, String vehicleID, int startDay, int endDay, boolean wantWaitlist) throws RemoteException {
 
         vehicleRecord v = vehicles.get(vehicleID);
         if (v == null) return "No such vehicle with ID: " + vehicleID;
 
-        if (!Reservation.isValidRange(startDate, endDate)) {
-            return "Invalid date range.";
+        // full and no waitlist wanted: nothing would change, so answer without queueing for the lock
+        if (!wantWaitlist && !v.hasRoom(startDay, endDay)) {
+            return v.vehicleNumber <= 0 ? "FAIL|Vehicle quantity is 0." : "FAIL|Vehicle not available for the requested period.";
         }
 
         // Lock vehicle record to prevent concurrent reserve/update/cancel
-        v.lock.lock();
+        journal.enter();
+        lockVehicle(v);
 
         try {
-            if (v.vehicleNumber <= 0) {
-                return "FAIL|Vehicle quantity is 0.";
+            String full = refuseOrWaitlist(v, customerID, startDay, endDay, wantWaitlist);
+            if (full != null) return full;
+
+            long cents = BudgetLedger.toCents(v.price);
+            if (!budgets.tryDebit(customerID, cents)) {
+                return "FAIL|Not enough budget.";
             }
+            v.addReservation(new Reservation(customerID, startDay, endDay));
+            journal.budget(customerID, -cents);
+            journal.reserve(vehicleID, customerID, startDay, endDay);
 
-            int overlapCount = countOverlapping(v, startDate, endDate);
-            if (overlapCount >= v.vehicleNumber) {
-                if (wantWaitlist) {
-                    // adding to waiting list (FIFO)
-                    v.waitlist.addLast(new WaitingList(customerID, startDate, endDate));
-                    return "FAIL|Vehicle not available for the requested period. Added to waitlist.";
-                }
-                return "FAIL|Vehicle not available for the requested period.";
+            String res = reservedText(vehicleID, customerID);
+
+            logServer("reserveVehicle",
+                    "customerID=" + customerID + ", vehicleID=" + vehicleID
+                            + ", start=" + Reservation.formatDay(startDay) + ", end=" + Reservation.formatDay(endDay),
+                    res);
+
+            return res;
+        } finally {
+            v.lock.unlock();
+            journal.exit();
+        }
+    }
+
+    // null when one more reservation fits the range; otherwise the refusal, after queueing the
+    // request when the customer wants to wait. Callers hold the vehicle lock
+    private String refuseOrWaitlist(vehicleRecord v, String customerID, int startDay, int endDay, boolean wantWaitlist) {
+        if (v.vehicleNumber <= 0) {
+            return "FAIL|Vehicle quantity is 0.";
+        }
+
+        int overlapCount = countOverlapping(v, startDay, endDay);
+        if (overlapCount < v.vehicleNumber) return null;
+        if (wantWaitlist) {
+            // adding to waiting list (FIFO)
+            v.waitlist.add(new WaitingList(customerID, startDay, endDay));
+            journal.waitlistAdd(v.vehicleID, customerID, startDay, endDay);
+            metrics.counter("waitlist.enqueued").increment();
+            return "FAIL|Vehicle not available for the requested period. Added to waitlist.";
+        }
+        return "FAIL|Vehicle not available for the requested period.";
+    }
+
+    private String reservedText(String vehicleID, String customerID) {
+        return "SUCCESS|Reservation successful for " + vehicleID
+                + " at office " + office
+                + " By the Customer " + customerID;
+    }
+
+    // cents >= 0 puts the price in the answer for the customer's office to refund
+    private String cancelledText(String vehicleID, String customerID, long cents, int assigned) {
+        String res = "SUCCESS|Reservation cancelled for " + vehicleID + " at office " + office + " by " + customerID
+                + ". Auto-assigned from waitlist: " + assigned;
+        return cents < 0 ? res : wireCodec.Reply.settled(cents, res).text();
+    }
+
+    /* ============================ Cross-office bookings ============================ */
+
+    // The vehicle's office holds a seat and names its price (PREPARE); the customer's office takes
+    // the money and sends COMMIT, or ABORT when it will not pay. A hold nobody decides on expires
+    // after HOLD_MILLIS. Holds are kept in memory only: a restarted office answers COMMIT of a lost
+    // hold with FAIL and the customer's office refunds.
+
+    private String newTxn() {
+        return office + "-" + nextTxn.incrementAndGet();
+    }
+
+    // callers hold the vehicle lock; the seat counts against capacity but is journaled on commit only
+    private seatHold holdSeat(vehicleRecord v, String txn, String customerID, int startDay, int endDay) {
+        seatHold h = new seatHold(customerID, v.vehicleID, startDay, endDay, BudgetLedger.toCents(v.price));
+        v.addReservation(new Reservation(customerID, startDay, endDay));
+        putHold(txn, h);
+        cancelledSeats.remove(customerID + "|" + v.vehicleID);
+        txnTimer.schedule(() -> releaseSeat(txn, "txn.expired"), HOLD_MILLIS, TimeUnit.MILLISECONDS);
+        metrics.counter("txn.prepared").increment();
+        return h;
+    }
+
+    private static seatKey seatOf(seatHold h) {
+        return new seatKey(h.vehicleID(), new Reservation(h.customerID(), h.startDay(), h.endDay()));
+    }
+
+    private void putHold(String txn, seatHold h) {
+        holds.put(txn, h);
+        heldSeats.merge(seatOf(h), 1, Integer::sum);
+    }
+
+    // false when the transaction no longer holds h
+    private boolean dropHold(String txn, seatHold h) {
+        if (!holds.remove(txn, h)) return false;
+        heldSeats.computeIfPresent(seatOf(h), (k, n) -> n == 1 ? null : n - 1);
+        return true;
+    }
+
+    private boolean isHeld(String vehicleID, Reservation r) {
+        return heldSeats.containsKey(new seatKey(vehicleID, r));
+    }
+
+    // PREPARE: the seat is held for the transaction and the answer carries its price
+    wireCodec.Reply prepareSeat(String txn, wireCodec.Reserve r) {
+        vehicleRecord v = vehicles.get(r.vehicleID());
+        if (v == null) return wireCodec.Reply.of("No such vehicle with ID: " + r.vehicleID());
+
+        // full and no waitlist wanted: nothing would change, so answer without queueing for the lock
+        if (!r.wantWaitlist() && !v.hasRoom(r.startDay(), r.endDay()) && !holds.containsKey(txn)) {
+            return wireCodec.Reply.of(v.vehicleNumber <= 0 ? "FAIL|Vehicle quantity is 0."
+                    : "FAIL|Vehicle not available for the requested period.");
+        }
+
+        journal.enter();
+        lockVehicle(v);
+        try {
+            seatHold held = holds.get(txn);
+            if (held == null) {
+                if (vehicles.get(r.vehicleID()) != v) return wireCodec.Reply.of("No such vehicle with ID: " + r.vehicleID());
+                String full = refuseOrWaitlist(v, r.customerID(), r.startDay(), r.endDay(), r.wantWaitlist());
+                if (full != null) return wireCodec.Reply.of(full);
+                held = holdSeat(v, txn, r.customerID(), r.startDay(), r.endDay());
+                logServer("prepareSeat", "txn=" + txn + ", customerID=" + r.customerID() + ", vehicleID=" + r.vehicleID()
+                        + ", start=" + Reservation.formatDay(r.startDay()) + ", end=" + Reservation.formatDay(r.endDay()), "held");
             }
+            return wireCodec.Reply.settled(held.cents(), reservedText(r.vehicleID(), r.customerID()));
+        } finally {
+            v.lock.unlock();
+            journal.exit();
+        }
+    }
+
+    // COMMIT: the customer's office has paid, the held seat becomes a reservation
+    wireCodec.Reply commitSeat(String txn, wireCodec.Reserve r) {
+        if (keepSeat(txn)) return new wireCodec.Reply(wireCodec.Status.OK, "SUCCESS|");
 
+        // no hold: committed before (COMMIT sent again) or given up (expired, restarted, removed)
+        vehicleRecord v = vehicles.get(r.vehicleID());
+        Reservation booked = new Reservation(r.customerID(), r.startDay(), r.endDay());
+        if (v != null && v.reservationsOf(r.customerID()).contains(booked) && !isHeld(r.vehicleID(), booked)) {
+            return new wireCodec.Reply(wireCodec.Status.OK, "SUCCESS|");
+        }
+        return new wireCodec.Reply(wireCodec.Status.FAIL,
+                "FAIL|The hold on " + r.vehicleID() + " expired before it was paid. Please try again.");
+    }
 
-            double remaining = budgets.get(customerID);
-            if (remaining < v.price) {
+    // the held seat becomes a reservation; false when the hold is gone
+    private boolean keepSeat(String txn) {
+        seatHold h = holds.get(txn);
+        if (h == null) return false;
+        vehicleRecord v = vehicles.get(h.vehicleID());
+        if (v == null) {
+            dropHold(txn, h); // vehicle removed
+            return false;
+        }
+
+        journal.enter();
+        lockVehicle(v);
+        try {
+            if (!dropHold(txn, h)) return false;
+            journal.reserve(h.vehicleID(), h.customerID(), h.startDay(), h.endDay());
+            metrics.counter("txn.committed").increment();
+            return true;
+        } finally {
+            v.lock.unlock();
+            journal.exit();
+        }
+    }
+
+    // gives a held seat back (ABORT, expiry, refused CONFIRM) and offers it to the waitlist
+    private boolean releaseSeat(String txn, String reason) {
+        seatHold h = holds.get(txn);
+        if (h == null) return false;
+        vehicleRecord v = vehicles.get(h.vehicleID());
+        if (v == null) {
+            dropHold(txn, h); // vehicle removed
+            return false;
+        }
+
+        journal.enter();
+        lockVehicle(v);
+        try {
+            if (!dropHold(txn, h)) return false;
+            v.removeReservation(new Reservation(h.customerID(), h.startDay(), h.endDay()));
+            metrics.counter(reason).increment();
+            tryAssignFromWaitlist(v);
+            return true;
+        } finally {
+            v.lock.unlock();
+            journal.exit();
+        }
+    }
+
+    // CONFIRM for a seat given from the waitlist: kept once the customer's office has paid,
+    // given back when it refuses
+    private void askToPay(String txn, seatHold h) {
+        String home = IdCheck.officeLocation(h.customerID());
+        settle(home, new wireCodec.Confirm(txn, h.customerID(), h.vehicleID(), h.cents()), r -> {
+            if (!r.ok()) releaseSeat(txn, "txn.unpaid");
+            else if (!keepSeat(txn)) refundSeat(h); // expired or removed while the answer was on its way
+        });
+    }
+
+    // REFUND for a committed seat this office dropped
+    private void refundSeat(seatHold h) {
+        settle(IdCheck.officeLocation(h.customerID()), new wireCodec.Refund(h.customerID(), h.vehicleID(), h.cents()), r -> {
+        });
+    }
+
+    private void abort(String target, String txn) {
+        udp.request(target, new wireCodec.Abort(txn)); // a lost ABORT only keeps the seat until it expires
+    }
+
+    // sends msg until the office answers SUCCESS or FAIL, then hands the answer on; after
+    // SETTLE_ATTEMPTS it gives up and logs the transaction as in doubt. Runs on the txn timer,
+    // never under a caller's lock
+    private void settle(String target, Object msg, Consumer<wireCodec.Reply> onAnswer) {
+        settle(target, msg, onAnswer, 1);
+    }
+
+    private void settle(String target, Object msg, Consumer<wireCodec.Reply> onAnswer, int attempt) {
+        udp.request(target, msg).whenCompleteAsync((r, e) -> {
+            if (r != null && (r.ok() || r.status() == wireCodec.Status.FAIL)) {
+                onAnswer.accept(r);
+            } else if (attempt >= SETTLE_ATTEMPTS) {
+                metrics.counter("txn.inDoubt").increment();
+                logServer("settle", "office=" + target + ", msg=" + msg, "no answer after " + attempt + " attempts");
+            } else {
+                txnTimer.schedule(() -> settle(target, msg, onAnswer, attempt + 1), SETTLE_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }, txnTimer);
+    }
+
+    // the customer's side of a booking at another office: hold the seat there, pay here, commit
+    // claim: take the customer's slot at the office for this booking; false when it is held already
+    // by the reservation this one replaces
+    private String reserveRemote(String customerID, String target, wireCodec.Reserve item, boolean claim) {
+        // remote office limit: only 1 vehicle per remote office, claimed before asking
+        if (claim && !customers.claimRemote(customerID, target)) {
+            return "FAIL|You can only reserve one vehicle from office " + target;
+        }
+        String txn = newTxn();
+        wireCodec.Reply held;
+        try {
+            held = udpRequest(target, new wireCodec.Prepare(txn, item));
+        } catch (Exception e) {
+            if (claim) unclaimRemote(customerID, target);
+            abort(target, txn); // the hold may have been taken with only the answer lost
+            return "ERR|UDP RESERVE error: " + e.getMessage();
+        }
+        if (!held.ok()) {
+            if (claim) unclaimRemote(customerID, target);
+            return held.text();
+        }
+        return payAndCommit(customerID, target, txn, item, held, claim);
+    }
+
+    // held is the PREPARE answer; the claim on the office is taken already
+    private String payAndCommit(String customerID, String target, String txn, wireCodec.Reserve item,
+                                wireCodec.Reply held, boolean claim) {
+        long cents = held.cents();
+        journal.enter();
+        try {
+            if (!budgets.tryDebit(customerID, cents)) {
+                if (claim) unclaimRemote(customerID, target);
+                abort(target, txn);
                 return "FAIL|Not enough budget.";
             }
+            journal.budget(customerID, -cents);
+            if (claim) journal.remoteOffice(customerID, target, true);
+        } finally {
+            journal.exit();
+        }
+
+        wireCodec.Commit commit = new wireCodec.Commit(txn, item);
+        wireCodec.Reply done;
+        try {
+            done = udpRequest(target, commit);
+        } catch (Exception e) {
+            done = null;
+        }
+        if (done == null || !(done.ok() || done.status() == wireCodec.Status.FAIL)) {
+            // the answer is lost, not the decision: ask again until the office says whether it kept the seat
+            settle(target, commit, r -> {
+                if (!r.ok()) giveBack(customerID, target, cents, claim);
+            });
+            return "ERR|Reservation of " + item.vehicleID() + " at office " + target
+                    + " is not confirmed yet; it is refunded if it does not go through.";
+        }
+        if (done.ok()) return held.message();
+        giveBack(customerID, target, cents, claim);
+        return done.text();
+    }
+
+    // what a remote seat cost, back to the customer; with its own claim the office slot goes too
+    private void giveBack(String customerID, String target, long cents, boolean claim) {
+        if (claim) {
+            refundRemote(customerID, target, cents);
+            return;
+        }
+        journal.enter();
+        try {
+            budgets.credit(customerID, cents);
+            journal.budget(customerID, cents);
+        } finally {
+            journal.exit();
+        }
+    }
+
+    // drops a claim on a remote office that did not turn into a booking
+    private void unclaimRemote(String customerID, String target) {
+        journal.enter();
+        try {
+            // journaled too: a snapshot may have caught the claim
+            if (customers.releaseRemote(customerID, target)) journal.remoteOffice(customerID, target, false);
+        } finally {
+            journal.exit();
+        }
+    }
+
+    // gives back what a remote seat cost; paid once, while the customer still holds the office
+    private boolean refundRemote(String customerID, String target, long cents) {
+        journal.enter();
+        try {
+            if (!customers.releaseRemote(customerID, target)) return false;
+            budgets.credit(customerID, cents);
+            journal.budget(customerID, cents);
+            journal.remoteOffice(customerID, target, false);
+            return true;
+        } finally {
+            journal.exit();
+        }
+    }
+
+    // CONFIRM from the vehicle's office: pay for a seat the customer got from its waitlist
+    wireCodec.Reply payForSeat(wireCodec.Confirm c) {
+        wireCodec.Reply answer = confirmed.get(c.txn());
+        if (answer != null) return answer;
+
+        String target = officeOfVehicle(c.vehicleID());
+        journal.enter();
+        try {
+            if (!customers.claimRemote(c.customerID(), target)) {
+                answer = new wireCodec.Reply(wireCodec.Status.FAIL, "FAIL|You can only reserve one vehicle from office " + target);
+            } else if (!budgets.tryDebit(c.customerID(), c.cents())) {
+                customers.releaseRemote(c.customerID(), target);
+                answer = new wireCodec.Reply(wireCodec.Status.FAIL, "FAIL|Not enough budget.");
+            } else {
+                journal.budget(c.customerID(), -c.cents());
+                journal.remoteOffice(c.customerID(), target, true);
+                answer = new wireCodec.Reply(wireCodec.Status.OK, "SUCCESS|");
+            }
+        } finally {
+            journal.exit();
+        }
+        confirmed.put(c.txn(), answer);
+        logServer("confirmSeat", "customerID=" + c.customerID() + ", vehicleID=" + c.vehicleID(), answer.text());
+        return answer;
+    }
 
-            budgets.put(customerID, remaining - v.price);
-            v.reservations.add(new Reservation(customerID, startDate, endDate));
+    // insertion-ordered and bounded: the oldest entry goes once there are more than max
+    private static <V> Map<String, V> recent(int max) {
+        return Collections.synchronizedMap(new LinkedHashMap<>(64, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > max;
+            }
+        });
+    }
 
-            String res = "SUCCESS|Reservation successful for " + vehicleID
-                    + " at office " + office
-                    + " By the Customer " + customerID;
+    /* ============================ Metrics ============================ */
 
-            logServer("reserveVehicle",
-                    "customerID=" + customerID + ", vehicleID=" + vehicleID + ", start=" + startDate + ", end=" + endDate,
-                    res);
+    private interface remoteCall<T> {
+        T call() throws RemoteException;
+    }
 
-            return res;
+    // latency of one public operation, filed under its outcome; turned away when the office is full
+    private String timed(String op, remoteCall<String> call) throws RemoteException {
+        long start = System.nanoTime();
+        if (!admission.enter()) {
+            metrics.histogram("op." + op + ".busy").record(System.nanoTime() - start);
+            return admissionGate.BUSY_TEXT;
+        }
+        String outcome = "exception";
+        try {
+            String result = call.call();
+            outcome = outcomeOf(result);
+            return result;
         } finally {
-            v.lock.unlock();
+            admission.exit();
+            metrics.histogram("op." + op + "." + outcome).record(System.nanoTime() - start);
         }
     }
 
-    /* ============================ Add UDP port ============================ */
-    private int udpPort() {
-        return switch (office) {
-            case "MTL" -> 6000;
-            case "WPG" -> 6001;
-            case "BNF" -> 6002;
-            default -> throw new IllegalStateException("Unknown office: " + office);
-        };
+    // a batch is timed as a whole and takes one admission slot; its items are counted by outcome
+    private List<String> timedBatch(String op, int items, remoteCall<List<String>> call) throws RemoteException {
+        long start = System.nanoTime();
+        if (!admission.enter()) {
+            metrics.histogram("op." + op + ".busy").record(System.nanoTime() - start);
+            return Collections.nCopies(items, admissionGate.BUSY_TEXT);
+        }
+        String outcome = "exception";
+        try {
+            List<String> results = call.call();
+            for (String r : results) metrics.counter("op." + op + ".items." + outcomeOf(r)).increment();
+            outcome = "ok";
+            return results;
+        } finally {
+            admission.exit();
+            metrics.histogram("op." + op + "." + outcome).record(System.nanoTime() - start);
+        }
     }
 
-    private int portOfOffice(String off) {
-        return switch (off) {
-            case "MTL" -> 6000;
-            case "WPG" -> 6001;
-            case "BNF" -> 6002;
-            default -> throw new IllegalArgumentException("Unknown office: " + off);
-        };
+    // results are free text; the protocol prefixes and the usual refusals decide
+    private static String outcomeOf(String result) {
+        String r = (result == null) ? "" : result.strip();
+        if (r.startsWith("SUCCESS")) return "ok";
+        if (r.startsWith("FAIL")) return "fail";
+        if (r.startsWith("ERR|Busy")) return "busy";
+        if (r.startsWith("ERR") || r.contains("[Partial result")) return "error";
+        if (r.startsWith("Wrong") || r.startsWith("Invalid") || r.startsWith("Sorry") || r.startsWith("No such")) {
+            return "rejected";
+        }
+        return "ok";
+    }
+
+    // takes the vehicle's write lock, recording how long it had to wait
+    private void lockVehicle(vehicleRecord v) {
+        if (v.lock.tryLock()) {
+            lockWait.record(0);
+            return;
+        }
+        long start = System.nanoTime();
+        v.lock.lock();
+        long waited = System.nanoTime() - start;
+        lockWait.record(waited);
+        v.noteLockWait(waited);
+    }
+
+    // the vehicles that waited longest for their lock, most contended first
+    private String contendedVehicles() {
+        List<vehicleRecord> top = new ArrayList<>();
+        for (vehicleRecord v : vehicles.values()) if (v.lockWaits() > 0) top.add(v);
+        top.sort((a, b) -> Long.compare(b.lockWaitNanos(), a.lockWaitNanos()));
+
+        StringBuilder sb = new StringBuilder();
+        for (vehicleRecord v : top.subList(0, Math.min(10, top.size()))) {
+            sb.append(String.format(Locale.ROOT, "%-12s waits=%d total=%s%n",
+                    v.vehicleID, v.lockWaits(), Metrics.time(v.lockWaitNanos())));
+        }
+        return sb.length() == 0 ? "(none)\n" : sb.toString();
+    }
+
+    @Override
+    public String getMetrics(String managerID) throws RemoteException {
+        if (!IdCheck.isManager(managerID)) return "Wrong manager ID";
+        if (!isLocalUser(managerID)) return "Wrong office of manager";
+        return metrics.report();
+    }
+
+    /* ============================ Persistence ============================ */
+
+    // writes the whole office state as journal records; runs while no operation is in flight
+    private void dumpState(StateChanges out) {
+        long start = BudgetLedger.toCents(defaultBudget);
+        for (vehicleRecord v : vehicles.values()) {
+            out.putVehicle(v.vehicleID, v.vehicleType, v.vehicleNumber, v.price);
+            for (Reservation r : v.reservations()) {
+                // held seats are journaled when committed
+                if (!isHeld(v.vehicleID, r)) out.reserve(v.vehicleID, r.customerID(), r.startDay(), r.endDay());
+            }
+            for (WaitingList w : v.waitlist) out.waitlistAdd(v.vehicleID, w.customerID(), w.startDay(), w.endDay());
+        }
+        budgets.forEach((customerID, cents) -> {
+            if (cents != start) out.budget(customerID, cents - start);
+        });
+        customers.forEachRemote((customerID, off) -> out.remoteOffice(customerID, off, true));
+    }
+
+    // applies recovered records straight to the state; runs in the constructor before any request
+    private class stateReplay implements StateChanges {
+        @Override
+        public void putVehicle(String vehicleID, String vehicleType, int vehicleNumber, double price) {
+            vehicleRecord v = vehicles.get(vehicleID);
+            if (v == null) {
+                vehicles.put(vehicleID, new vehicleRecord(vehicleID, vehicleType, vehicleNumber, price, customers));
+            } else {
+                unindexType(v.vehicleType, vehicleID);
+                v.vehicleType = vehicleType;
+                v.vehicleNumber = vehicleNumber;
+                v.price = price;
+            }
+            indexType(vehicleType, vehicleID);
+        }
+
+        @Override
+        public void removeVehicle(String vehicleID) {
+            vehicleRecord v = vehicles.remove(vehicleID);
+            if (v != null) {
+                unindexType(v.vehicleType, vehicleID);
+                v.clearReservations();
+            }
+        }
+
+        @Override
+        public void reserve(String vehicleID, String customerID, int startDay, int endDay) {
+            vehicleRecord v = vehicles.get(vehicleID);
+            if (v != null) v.addReservation(new Reservation(customerID, startDay, endDay));
+        }
+
+        @Override
+        public void cancel(String vehicleID, String customerID, int startDay, int endDay) {
+            vehicleRecord v = vehicles.get(vehicleID);
+            if (v != null) v.removeReservation(new Reservation(customerID, startDay, endDay));
+        }
+
+        @Override
+        public void waitlistAdd(String vehicleID, String customerID, int startDay, int endDay) {
+            vehicleRecord v = vehicles.get(vehicleID);
+            if (v != null) v.waitlist.add(new WaitingList(customerID, startDay, endDay));
+        }
+
+        @Override
+        public void waitlistRemove(String vehicleID, String customerID, int startDay, int endDay) {
+            vehicleRecord v = vehicles.get(vehicleID);
+            if (v != null) v.waitlist.remove(new WaitingList(customerID, startDay, endDay));
+        }
+
+        @Override
+        public void budget(String customerID, long deltaCents) {
+            budgets.credit(customerID, deltaCents);
+        }
+
+        @Override
+        public void remoteOffice(String customerID, String off, boolean held) {
+            customers.setRemote(customerID, off, held);
+        }
     }
 
     public officeServer(String office) throws RemoteException {
+        this(office, Topology.get());
+    }
+
+    public officeServer(String office, Topology topology) throws RemoteException {
         super();
         this.office = office;
+        this.topology = topology;
+        Topology.Office self = topology.office(office);
+
+        this.metrics = new Metrics(office);
+        this.lockWait = metrics.histogram("lock.vehicle.wait");
+        this.admission = new admissionGate(metrics);
+        metrics.gauge("logger.queueDepth", Logger::queueDepth);
+        metrics.gauge("logger.dropped", Logger::dropped);
+        metrics.gauge("vehicles", vehicles::size);
+        metrics.gauge("find.cache.entries", peerFinds::size);
+        metrics.section("Most contended vehicle locks", this::contendedVehicles);
+
+        this.txnTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "txn-" + office);
+            t.setDaemon(true);
+            return t;
+        });
 
-        startUdpListener();
+        this.journal = StateJournal.open(office);
+        try {
+            journal.recover(new stateReplay());
+            journal.start(this::dumpState);
+        } catch (IOException e) {
+            throw new RemoteException("Cannot recover state of office " + office, e);
+        }
+
+        try {
+            this.udp = new udpClient(office, off -> topology.office(off).udpAddress(), metrics);
+            this.dispatcher = new udpDispatcher(office, self.udpPort(), this::handleUdpRequest);
+        } catch (IOException e) {
+            throw new RemoteException("Cannot open UDP channels for office " + office, e);
+        }
+
+        metrics.startDump(Path.of("logs", "metrics_" + office + ".txt"));
     }
 
     /* ============================ Manager Role ============================ */
 
     @Override
     public String addVehicle(String managerID, int vehicleNumber, String vehicleType, String vehicleID, double reservationPrice) throws RemoteException {
+        return timed("addVehicle", () -> doAddVehicle(managerID, vehicleNumber, vehicleType, vehicleID, reservationPrice));
+    }
+
+    private String doAddVehicle(String managerID, int vehicleNumber, String vehicleType, String vehicleID, double reservationPrice) throws RemoteException {
         //check manager and the office location
         if (!IdCheck.isManager(managerID)) return "Wrong manager ID";
         if (!isLocalUser(managerID)) return "Wrong office of manager";
 
-        vehicleRecord v = vehicles.get(vehicleID);
+        int assigned;
+        journal.enter();
+        try {
+            while (true) {
+                vehicleRecord v = vehicles.computeIfAbsent(vehicleID,
+                        id -> new vehicleRecord(id, vehicleType, 0, reservationPrice, customers));
 
-        if (v == null) {
-            int q = Math.max(0, vehicleNumber);
-            vehicles.put(vehicleID, new vehicleRecord(vehicleID, vehicleType, q, reservationPrice));
-        } else {
-            v.vehicleType = vehicleType;
-            v.vehicleNumber = Math.max(0, v.vehicleNumber + vehicleNumber);
-            v.price = reservationPrice;
-        }
-        // try assign from waitlist (vehicle becomes available)
-        vehicleRecord rec = vehicles.get(vehicleID);
-        int assigned = 0;
+                // Lock vehicle record so quantity, type and the type index change together
+                lockVehicle(v);
+                try {
+                    if (vehicles.get(vehicleID) != v) continue; // removed meanwhile, start again
 
-        rec.lock.lock();
-        try {
-            assigned = tryAssignFromWaitlist(rec);
+                    String oldType = v.vehicleType;
+                    v.vehicleType = vehicleType;
+                    v.vehicleNumber = Math.max(0, v.vehicleNumber + vehicleNumber);
+                    v.price = reservationPrice;
+
+                    indexType(vehicleType, vehicleID);
+                    if (!typeKey(oldType).equals(typeKey(vehicleType))) unindexType(oldType, vehicleID);
+                    journal.putVehicle(vehicleID, vehicleType, v.vehicleNumber, reservationPrice);
+                    announceInventory(vehicleType);
+                    if (!typeKey(oldType).equals(typeKey(vehicleType))) announceInventory(oldType);
+
+                    // try assign from waitlist (vehicle becomes available)
+                    assigned = tryAssignFromWaitlist(v);
+                    break;
+                } finally {
+                    v.lock.unlock();
+                }
+            }
         } finally {
-            rec.lock.unlock();
+            journal.exit();
         }
 
         String res = "The vehicle quantity: " + vehicleNumber
@@ -325,6 +1154,10 @@ public class officeServer extends UnicastRemoteObject implements DVRMS {
 
     @Override
     public String removeVehicle(String managerID, String vehicleID) throws RemoteException {
+        return timed("removeVehicle", () -> doRemoveVehicle(managerID, vehicleID));
+    }
+
+    private String doRemoveVehicle(String managerID, String vehicleID) throws RemoteException {
         //check manager and the office location
         if (!IdCheck.isManager(managerID)) return "Wrong manager ID";
         if (!isLocalUser(managerID)) return "Wrong office of manager";
@@ -333,20 +1166,30 @@ public class officeServer extends UnicastRemoteObject implements DVRMS {
         if (v == null) return "Sorry, the vehicle " + vehicleID + " does not exist in the office " + office + ". ";
 
         // Lock vehicle record to prevent concurrent reserve/update/cancel
-        v.lock.lock();
+        journal.enter();
+        lockVehicle(v);
 
         try {
+            if (vehicles.get(vehicleID) != v) return "Vehicle " + vehicleID + " already removed.";
+            // logged before the map entry goes, so a re-add of the same ID always follows it
+            journal.removeVehicle(vehicleID);
             vehicleRecord removed = vehicles.remove(vehicleID);
-            if (removed == null) return "Vehicle " + vehicleID + " already removed.";
+            unindexType(removed.vehicleType, vehicleID);
+            announceInventory(removed.vehicleType);
 
             int refundedCount = 0;
-            for (Reservation r : removed.reservations) {
-                ensureBudget(r.customerID());
-                double old = budgets.get(r.customerID());
-                budgets.put(r.customerID(), old + removed.price);
+            long cents = BudgetLedger.toCents(removed.price);
+            for (Reservation r : removed.reservations()) {
+                if (isLocalUser(r.customerID())) {
+                    budgets.credit(r.customerID(), cents);
+                    journal.budget(r.customerID(), cents);
+                } else if (!dropHolds(vehicleID, r)) {
+                    // paid at the customer's office, which gives the money back
+                    refundSeat(new seatHold(r.customerID(), vehicleID, r.startDay(), r.endDay(), cents));
+                }
                 refundedCount++;
             }
-            removed.reservations.clear();
+            removed.clearReservations();
 
             int waitCount = removed.waitlist.size();
             removed.waitlist.clear();
@@ -364,21 +1207,37 @@ public class officeServer extends UnicastRemoteObject implements DVRMS {
 
         } finally {
             v.lock.unlock();
+            journal.exit();
         }
     }
 
+    // forgets one hold on the removed reservation; false when it was committed
+    private boolean dropHolds(String vehicleID, Reservation r) {
+        if (!isHeld(vehicleID, r)) return false;
+        seatKey seat = new seatKey(vehicleID, r);
+        for (Map.Entry<String, seatHold> e : holds.entrySet()) {
+            if (seatOf(e.getValue()).equals(seat) && dropHold(e.getKey(), e.getValue())) return true;
+        }
+        return false;
+    }
+
     @Override
     public String listAvailableVehicle(String managerID) throws RemoteException {
+        return timed("listAvailableVehicle", () -> doListAvailableVehicle(managerID));
+    }
+
+    private String doListAvailableVehicle(String managerID) throws RemoteException {
         //check manager and the office location
         if (!IdCheck.isManager(managerID)) return "Wrong manager ID";
         if (!isLocalUser(managerID)) return "Wrong office of manager";
 
         StringBuilder sb = new StringBuilder();
         for (var vr : vehicles.values()) {
+            vehicleRecord.Listing l = vr.listing();
             sb.append(vr.vehicleID).append(" ")
-                    .append(vr.vehicleType).append(" ")
-                    .append(vr.vehicleNumber).append(" ")
-                    .append((double) vr.price).append("\n");
+                    .append(l.vehicleType()).append(" ")
+                    .append(l.vehicleNumber()).append(" ")
+                    .append(l.price()).append("\n");
         }
 
         return sb.length() == 0 ? "There is no vehicles. " : sb.toString();
@@ -387,6 +1246,10 @@ public class officeServer extends UnicastRemoteObject implements DVRMS {
     /* ============================ User Role ============================ */
     @Override
     public String getBudget(String customerID) throws RemoteException {
+        return timed("getBudget", () -> doGetBudget(customerID));
+    }
+
+    private String doGetBudget(String customerID) throws RemoteException {
         String result;
 
         if (!IdCheck.isCustomer(customerID)) {
@@ -394,8 +1257,7 @@ public class officeServer extends UnicastRemoteObject implements DVRMS {
         } else if (!isLocalUser(customerID)) {
             result = "FAIL|Wrong office of customer";
         } else {
-            ensureBudget(customerID);
-            result = "SUCCESS|Budget=" + budgets.get(customerID);
+            result = "SUCCESS|Budget=" + budgets.balance(customerID) / 100.0;
         }
 
         logServer("getBudget", "customerID=" + customerID, result);
@@ -404,43 +1266,30 @@ public class officeServer extends UnicastRemoteObject implements DVRMS {
 
     @Override
     public String reserveVehicle(String customerID, String vehicleID, String startDate, String endDate, boolean wantWaitlist) throws RemoteException {
+        return timed("reserveVehicle", () -> doReserveVehicle(customerID, vehicleID, startDate, endDate, wantWaitlist));
+    }
+
+    private String doReserveVehicle(String customerID, String vehicleID, String startDate, String endDate, boolean wantWaitlist) throws RemoteException {
 
         String result;
+        int[] range = Reservation.parseRange(startDate, endDate);
 
         //check customer and the office location
         if (!IdCheck.isCustomer(customerID)) {
             result = "Wrong customer ID";
         } else if (!isLocalUser(customerID)) {
             result = "Wrong office of customer";
+        } else if (range == null) {
+            result = "Invalid date range.";
         } else {
             String targetOffice = vehicleID.substring(0, 3).toUpperCase();
 
             if (targetOffice.equals(office)) {
                 // local reservation
-                result = reserveVehicleLocalOnly(customerID, vehicleID, startDate, endDate, wantWaitlist);
+                result = reserveVehicleLocalOnly(customerID, vehicleID, range[0], range[1], wantWaitlist);
             } else {
-                // remote office limit: only 1 vehicle per remote office
-                remoteOfficeReservations.putIfAbsent(customerID, ConcurrentHashMap.newKeySet());
-
-                if (remoteOfficeReservations.get(customerID).contains(targetOffice)) {
-                    result = "FAIL|You can only reserve one vehicle from office " + targetOffice;
-                } else {
-                    try {
-                        String resp = udpRequest(
-                                targetOffice,
-                                "RESERVE|" + customerID + "|" + vehicleID + "|" + startDate + "|" + endDate + "|" + wantWaitlist
-                        );
-
-                        // only mark success when protocol matches
-                        if (resp != null && resp.startsWith("SUCCESS|")) {
-                            remoteOfficeReservations.get(customerID).add(targetOffice);
-                        }
-
-                        result = resp;
-                    } catch (Exception e) {
-                        result = "ERR|UDP RESERVE error: " + e.getMessage();
-                    }
-                }
+                result = reserveRemote(customerID, targetOffice,
+                        new wireCodec.Reserve(customerID, vehicleID, range[0], range[1], wantWaitlist), true);
             }
         }
 
@@ -455,57 +1304,235 @@ public class officeServer extends UnicastRemoteObject implements DVRMS {
 
     @Override
     public String updateReservation(String customerID, String vehicleID, String startDate, String endDate) throws RemoteException {
+        return timed("updateReservation", () -> doUpdateReservation(customerID, vehicleID, startDate, endDate));
+    }
+
+    private String doUpdateReservation(String customerID, String vehicleID, String startDate, String endDate) throws RemoteException {
         //check customer and the office location
         if (!IdCheck.isCustomer(customerID)) return "\nWrong customer ID";
         if (!isLocalUser(customerID)) return "\nWrong office of customer";
 
         //check date validation
-        if (!Reservation.isValidRange(startDate, endDate)) {
+        int[] range = Reservation.parseRange(startDate, endDate);
+        if (range == null) {
             return "\nInvalid date. Please use ddmmyyyy and ensure endDate >= startDate.";
         }
 
+        String targetOffice = officeOfVehicle(vehicleID);
+        if (!targetOffice.equals(office)) {
+            // moved by the vehicle's office; the customer can only hold it if they booked there
+            if (!customers.holdsRemote(customerID, targetOffice)) {
+                return "Sorry, there is no reservation found with customer ID: " + customerID;
+            }
+            try {
+                return udpRequest(targetOffice, new wireCodec.Update(customerID, vehicleID, range[0], range[1])).text();
+            } catch (Exception e) {
+                return "ERR|UDP UPDATE error: " + e.getMessage();
+            }
+        }
+        return updateReservationLocalOnly(customerID, vehicleID, range[0], range[1]);
+    }
+
+    String updateReservationLocalOnly(String customerID, String vehicleID, int startDay, int endDay) {
         vehicleRecord v = vehicles.get(vehicleID);
         if (v == null) return "Sorry there is no such vehicle with ID: " + vehicleID;
 
         // Lock vehicle record to prevent concurrent reserve/update/cancel
-        v.lock.lock();
+        journal.enter();
+        lockVehicle(v);
 
         try {
 
-            Reservation target = null;
-
             //check if the customer has reservation
-            for (Reservation r : v.reservations) {
-                if (r.customerID().equals(customerID)) {
-                    target = r;
-                    break;
-                }
-            }
+            Reservation target = v.reservationOf(customerID);
             if (target == null) return "Sorry, there is no reservation found with customer ID: " + customerID;
+            if (!isLocalUser(customerID) && isHeld(vehicleID, target)) {
+                return "FAIL|The reservation of " + vehicleID + " is not confirmed yet.";
+            }
 
-            //check the date conflict.
-            for (Reservation r : v.reservations) {
-                if (r == target) continue;
-                if (r.overlaps(startDate, endDate)) return "Sorry the date requested is not avalible.";
+            //check the date conflict against the other reservations.
+            v.removeReservation(target);
+            if (countOverlapping(v, startDay, endDay) >= v.vehicleNumber) {
+                v.addReservation(target);
+                return "Sorry the date requested is not avalible.";
             }
 
-            v.reservations.remove(target);
-            v.reservations.add(new Reservation(customerID, startDate, endDate));
+            v.addReservation(new Reservation(customerID, startDay, endDay));
+            journal.cancel(vehicleID, customerID, target.startDay(), target.endDay());
+            journal.reserve(vehicleID, customerID, startDay, endDay);
+
+            // the days the old dates no longer cover may fit someone waiting
+            int assigned = tryAssignFromWaitlist(v);
 
-            return "\nThe reservtion from " + startDate
-                    + " to " + endDate
+            return "\nThe reservtion from " + Reservation.formatDay(startDay)
+                    + " to " + Reservation.formatDay(endDay)
                     + " for the vehicle ID: " + vehicleID
                     + " has been successfully updated from the office " + office
-                    + " by the customer " + customerID + ". ";
+                    + " by the customer " + customerID + ". "
+                    + "Auto-assigned from waitlist: " + assigned;
 
         } finally {
             v.lock.unlock();
+            journal.exit();
+        }
+
+    }
+
+    @Override
+    public String swapReservation(String customerID, String oldVehicleID, String newVehicleID, String startDate, String endDate) throws RemoteException {
+        return timed("swapReservation", () -> doSwapReservation(customerID, oldVehicleID, newVehicleID, startDate, endDate));
+    }
+
+    private String doSwapReservation(String customerID, String oldVehicleID, String newVehicleID, String startDate, String endDate) throws RemoteException {
+        String result;
+        int[] range = Reservation.parseRange(startDate, endDate);
+
+        if (!IdCheck.isCustomer(customerID)) {
+            result = "Wrong customer ID";
+        } else if (!isLocalUser(customerID)) {
+            result = "Wrong office of customer";
+        } else if (range == null) {
+            result = "Invalid date range.";
+        } else if (oldVehicleID.equals(newVehicleID)) {
+            result = doUpdateReservation(customerID, oldVehicleID, startDate, endDate);
+        } else if (officeOfVehicle(oldVehicleID).equals(office) && officeOfVehicle(newVehicleID).equals(office)) {
+            result = swapLocalOnly(customerID, oldVehicleID, newVehicleID, range[0], range[1]);
+        } else {
+            result = swapAcrossOffices(customerID, oldVehicleID, newVehicleID, range[0], range[1]);
+        }
+
+        logServer("swapReservation",
+                "customerID=" + customerID + ", from=" + oldVehicleID + ", to=" + newVehicleID
+                        + ", start=" + startDate + ", end=" + endDate,
+                result);
+        return result;
+    }
+
+    // both vehicles here: one step under both locks, taken in ID order so opposite swaps cannot deadlock
+    private String swapLocalOnly(String customerID, String oldVehicleID, String newVehicleID, int startDay, int endDay) {
+        vehicleRecord from = vehicles.get(oldVehicleID);
+        if (from == null) return "Sorry there is no such vehicle with ID: " + oldVehicleID;
+        vehicleRecord to = vehicles.get(newVehicleID);
+        if (to == null) return "No such vehicle with ID: " + newVehicleID;
+
+        vehicleRecord first = oldVehicleID.compareTo(newVehicleID) < 0 ? from : to;
+        vehicleRecord second = (first == from) ? to : from;
+        journal.enter();
+        lockVehicle(first);
+        lockVehicle(second);
+        try {
+            if (vehicles.get(oldVehicleID) != from || vehicles.get(newVehicleID) != to) {
+                return "FAIL|Vehicle removed meanwhile. Please try again.";
+            }
+            Reservation old = from.reservationOf(customerID);
+            if (old == null) return "Sorry, there is no reservation found with customer ID: " + customerID;
+
+            String full = refuseOrWaitlist(to, customerID, startDay, endDay, false);
+            if (full != null) return full;
+
+            // only the difference in price changes hands
+            long delta = BudgetLedger.toCents(to.price) - BudgetLedger.toCents(from.price);
+            if (delta > 0 && !budgets.tryDebit(customerID, delta)) return "FAIL|Not enough budget.";
+            if (delta < 0) budgets.credit(customerID, -delta);
+
+            to.addReservation(new Reservation(customerID, startDay, endDay));
+            from.removeReservation(old);
+            journal.reserve(newVehicleID, customerID, startDay, endDay);
+            journal.cancel(oldVehicleID, customerID, old.startDay(), old.endDay());
+            if (delta != 0) journal.budget(customerID, -delta);
+
+            int assigned = tryAssignFromWaitlist(from);
+            return movedText(customerID, oldVehicleID, newVehicleID, startDay, endDay)
+                    + " Auto-assigned from waitlist: " + assigned;
+        } finally {
+            second.lock.unlock();
+            first.lock.unlock();
+            journal.exit();
+        }
+    }
+
+    // books the new vehicle (here or at its office) first and lets go of the old one only once that
+    // succeeded; the customer may briefly pay for both
+    private String swapAcrossOffices(String customerID, String oldVehicleID, String newVehicleID, int startDay, int endDay) throws RemoteException {
+        String from = officeOfVehicle(oldVehicleID);
+        String to = officeOfVehicle(newVehicleID);
+
+        // nothing is booked unless there is something to move
+        boolean holdsOld;
+        if (from.equals(office)) {
+            vehicleRecord v = vehicles.get(oldVehicleID);
+            holdsOld = v != null && !v.reservationsOf(customerID).isEmpty();
+        } else {
+            // the slot at that office may be for another vehicle: ask the office what is booked there
+            holdsOld = false;
+            if (customers.holdsRemote(customerID, from)) {
+                try {
+                    wireCodec.Reply listed = udpRequest(from, new wireCodec.ListReservations(customerID));
+                    holdsOld = listed.ok() && listed.text().lines().anyMatch(l -> l.startsWith(oldVehicleID + " "));
+                } catch (Exception e) {
+                    return "ERR|UDP LIST error: " + e.getMessage();
+                }
+            }
+        }
+        if (!holdsOld) {
+            return "Sorry, there is no reservation found with customer ID: " + customerID + " on vehicle " + oldVehicleID + ".";
+        }
+
+        String booked;
+        if (to.equals(office)) {
+            booked = reserveVehicleLocalOnly(customerID, newVehicleID, startDay, endDay, false);
+        } else {
+            // moving within one remote office: the customer's slot there carries over
+            booked = reserveRemote(customerID, to,
+                    new wireCodec.Reserve(customerID, newVehicleID, startDay, endDay, false), !to.equals(from));
+        }
+        if (!booked.startsWith("SUCCESS|")) return booked;
+
+        String released = dropBooking(customerID, oldVehicleID, from, to.equals(from));
+        if (released.startsWith("SUCCESS|") || released.startsWith("ERR|")) {
+            // an unanswered cancel is sent again until it goes through
+            return movedText(customerID, oldVehicleID, newVehicleID, startDay, endDay) + " Old reservation: " + released;
+        }
+
+        // the old reservation stays, so the new one must not: one booking per remote office, paid once
+        String undone = dropBooking(customerID, newVehicleID, to, to.equals(from));
+        return "FAIL|Reservation of " + customerID + " not moved from " + oldVehicleID + ": "
+                + released.substring(released.indexOf('|') + 1) + " Booking of " + newVehicleID + ": " + undone;
+    }
+
+    // cancels one booking of a swap; keepClaim leaves the customer's slot at the office to the other
+    // booking there. A remote cancel whose answer is lost is sent again.
+    private String dropBooking(String customerID, String vehicleID, String from, boolean keepClaim) throws RemoteException {
+        if (from.equals(office)) return cancelReservationLocalOnly(customerID, vehicleID);
+
+        wireCodec.Cancel cancel = new wireCodec.Cancel(customerID, vehicleID);
+        Consumer<wireCodec.Reply> refund = r -> {
+            if (r.ok()) giveBack(customerID, from, r.cents(), !keepClaim);
+        };
+        try {
+            wireCodec.Reply r = udpRequest(from, cancel);
+            if (r.ok() || r.status() == wireCodec.Status.FAIL) {
+                refund.accept(r);
+                return r.message();
+            }
+        } catch (Exception e) {
+            // answer lost; settled below
         }
+        settle(from, cancel, refund);
+        return "ERR|Cancel of " + vehicleID + " at office " + from + " is not confirmed yet; it is sent again.";
+    }
 
+    private static String movedText(String customerID, String oldVehicleID, String newVehicleID, int startDay, int endDay) {
+        return "SUCCESS|Reservation of " + customerID + " moved from " + oldVehicleID + " to " + newVehicleID
+                + " (" + Reservation.formatDay(startDay) + "-" + Reservation.formatDay(endDay) + ").";
     }
 
     @Override
     public String cancelReservation(String customerID, String vehicleID) throws RemoteException {
+        return timed("cancelReservation", () -> doCancelReservation(customerID, vehicleID));
+    }
+
+    private String doCancelReservation(String customerID, String vehicleID) throws RemoteException {
 
         String result;
 
@@ -521,18 +1548,12 @@ public class officeServer extends UnicastRemoteObject implements DVRMS {
                 result = cancelReservationLocalOnly(customerID, vehicleID);
             } else {
                 try {
-                    String resp = udpRequest(targetOffice,
-                            "CANCEL|" + customerID + "|" + vehicleID);
+                    wireCodec.Reply resp = udpRequest(targetOffice, new wireCodec.Cancel(customerID, vehicleID));
 
                     // release only 1 after cancel，
-                    //ONLY release remote constraint on real success
-                    if (resp != null && resp.startsWith("SUCCESS|")) {
-                        remoteOfficeReservations.computeIfPresent(customerID, (k, set) -> {
-                            set.remove(targetOffice);
-                            return set;
-                        });
-                    }
-                    result = resp;
+                    //ONLY release remote constraint on real success, and refund what the peer names
+                    if (resp.ok()) refundRemote(customerID, targetOffice, resp.cents());
+                    result = resp.message();
 
                 } catch (Exception e) {
                     result = "ERR|UDP CANCEL error: " + e.getMessage();
@@ -551,6 +1572,10 @@ public class officeServer extends UnicastRemoteObject implements DVRMS {
 
     @Override
     public String findVehicle(String customerID, String vehicleType) throws RemoteException {
+        return timed("findVehicle", () -> doFindVehicle(customerID, vehicleType));
+    }
+
+    private String doFindVehicle(String customerID, String vehicleType) throws RemoteException {
         String result;
 
         // basic validation
@@ -559,34 +1584,305 @@ public class officeServer extends UnicastRemoteObject implements DVRMS {
         } else if (!isLocalUser(customerID)) {
             result = "\nWrong office of customer";
         } else {
-            StringBuilder all = new StringBuilder();
+            result = fromEveryOffice(off -> findRemote(off, vehicleType), () -> findVehicleLocalOnly(vehicleType));
+        }
+
+        // logging
+        logServer("findVehicle",
+                "customerID=" + customerID + ", type=" + vehicleType,
+                result);
 
-            // local office
-            all.append(findVehicleLocalOnly(vehicleType));
+        return result;
+
+    }
+
+    @Override
+    public String findAvailable(String customerID, String vehicleType, String startDate, String endDate) throws RemoteException {
+        return timed("findAvailable", () -> doFindAvailable(customerID, vehicleType, startDate, endDate));
+    }
+
+    private String doFindAvailable(String customerID, String vehicleType, String startDate, String endDate) throws RemoteException {
+        String result;
+        int[] range = Reservation.parseRange(startDate, endDate);
+
+        if (!IdCheck.isCustomer(customerID)) {
+            result = "\nWrong customer ID";
+        } else if (!isLocalUser(customerID)) {
+            result = "\nWrong office of customer";
+        } else if (range == null) {
+            result = "Invalid date range.";
+        } else {
+            result = fromEveryOffice(
+                    off -> remotePages(off, after -> new wireCodec.Available(vehicleType, range[0], range[1], after),
+                            "", new StringBuilder()),
+                    () -> findAvailableLocalOnly(vehicleType, range[0], range[1]));
+        }
 
-            // other offices via UDP
+        logServer("findAvailable",
+                "customerID=" + customerID + ", type=" + vehicleType + ", start=" + startDate + ", end=" + endDate,
+                result);
+        return result;
+    }
+
+    // the local lines and every peer's answer, the peers asked all at once; offices that miss the
+    // FIND deadline are named at the end instead of failing the whole search
+    private String fromEveryOffice(Function<String, CompletableFuture<String>> askPeer, Supplier<String> local) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FIND_DEADLINE_MILLIS);
+
+        // other offices via UDP, all asked at once
+        Map<String, CompletableFuture<String>> calls = new LinkedHashMap<>();
+        for (String off : topology.codes()) {
+            if (!off.equals(office)) calls.put(off, askPeer.apply(off));
+        }
+
+        // local office, searched while the peers answer
+        StringBuilder all = new StringBuilder();
+        all.append(local.get());
+
+        List<String> missing = new ArrayList<>();
+        for (Map.Entry<String, CompletableFuture<String>> call : calls.entrySet()) {
             try {
-                for (String off : new String[]{"MTL", "WPG", "BNF"}) {
-                    if (off.equals(office)) continue;
+                String r = call.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (!r.isBlank()) all.append(r.trim()).append("\n");
+            } catch (TimeoutException | ExecutionException e) {
+                missing.add(call.getKey());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                missing.add(call.getKey());
+            }
+        }
+
+        String result = (all.length() == 0) ? "\nNo matching vehicles." : "\n" + all;
+        if (!missing.isEmpty()) {
+            result += "\n[Partial result: no answer from " + String.join(", ", missing) + "]";
+        }
+        return result;
+    }
+
+    @Override
+    public String listReservations(String customerID) throws RemoteException {
+        return timed("listReservations", () -> doListReservations(customerID));
+    }
+
+    private String doListReservations(String customerID) throws RemoteException {
+        String result;
 
-                    String r = udpRequest(off, "FIND|" + vehicleType);
-                    if (r != null && !r.isBlank() && !r.startsWith("ERR|")) {
-                        all.append(r);
+        if (!IdCheck.isCustomer(customerID)) {
+            result = "\nWrong customer ID";
+        } else if (!isLocalUser(customerID)) {
+            result = "\nWrong office of customer";
+        } else {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FIND_DEADLINE_MILLIS);
+
+            // only the offices this customer booked at are asked
+            Map<String, CompletableFuture<wireCodec.Reply>> calls = new LinkedHashMap<>();
+            for (String off : new TreeSet<>(customers.remoteOfficesOf(customerID))) {
+                calls.put(off, udp.request(off, new wireCodec.ListReservations(customerID)));
+            }
+
+            StringBuilder all = new StringBuilder(listReservationsLocalOnly(customerID));
+            List<String> missing = new ArrayList<>();
+            for (Map.Entry<String, CompletableFuture<wireCodec.Reply>> call : calls.entrySet()) {
+                try {
+                    wireCodec.Reply r = call.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    if (r.status() == wireCodec.Status.ERROR || r.status() == wireCodec.Status.BUSY) {
+                        missing.add(call.getKey());
+                    } else if (!r.text().isBlank()) {
+                        all.append(r.text().trim()).append("\n");
                     }
+                } catch (TimeoutException | ExecutionException e) {
+                    missing.add(call.getKey());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    missing.add(call.getKey());
                 }
-                result = (all.length() == 0) ? "\nNo matching vehicles." : "\n" + all;
-            } catch (Exception e) {
-                result = "\nFIND failed due to UDP error: " + e.getMessage();
             }
-        }
 
-        // logging
-        logServer("findVehicle",
-                "customerID=" + customerID + ", type=" + vehicleType,
-                result);
+            result = (all.length() == 0) ? "\nNo reservations." : "\n" + all;
+            if (!missing.isEmpty()) {
+                result += "\n[Partial result: no answer from " + String.join(", ", missing) + "]";
+            }
+        }
 
+        logServer("listReservations", "customerID=" + customerID, result);
         return result;
+    }
+
+    /* ============================ Batch ============================ */
+
+    @Override
+    public List<String> reserveVehicles(String customerID, List<BookingRequest> bookings) throws RemoteException {
+        return timedBatch("reserveVehicles", bookings.size(), () -> doReserveVehicles(customerID, bookings));
+    }
+
+    private List<String> doReserveVehicles(String customerID, List<BookingRequest> bookings) throws RemoteException {
+        int n = bookings.size();
+        String[] results = new String[n];
+
+        if (!IdCheck.isCustomer(customerID)) {
+            Arrays.fill(results, "Wrong customer ID");
+        } else if (!isLocalUser(customerID)) {
+            Arrays.fill(results, "Wrong office of customer");
+        } else {
+            int[][] ranges = new int[n][];
+            List<Integer> local = new ArrayList<>();
+            Map<String, List<Integer>> remote = new LinkedHashMap<>();
+            for (int i = 0; i < n; i++) {
+                BookingRequest b = bookings.get(i);
+                ranges[i] = Reservation.parseRange(b.startDate(), b.endDate());
+                if (ranges[i] == null) {
+                    results[i] = "Invalid date range.";
+                } else {
+                    String target = officeOfVehicle(b.vehicleID());
+                    if (target.equals(office)) local.add(i);
+                    else remote.computeIfAbsent(target, k -> new ArrayList<>()).add(i);
+                }
+            }
+
+            // one message per remote office (per BATCH_ITEMS items), all offices at once; each
+            // office holds at most one seat, paid for and committed below
+            wireCodec.Reserve[] items = new wireCodec.Reserve[n];
+            wireCodec.Reply[] replies = new wireCodec.Reply[n];
+            Map<String, String> txns = new HashMap<>();
+            Map<String, CompletableFuture<Void>> calls = new LinkedHashMap<>();
+            for (Map.Entry<String, List<Integer>> e : remote.entrySet()) {
+                String target = e.getKey();
+                if (!customers.claimRemote(customerID, target)) continue; // refused below, nothing to send
+                String txn = newTxn();
+                txns.put(target, txn);
+                calls.put(target, batchToOffice(target, e.getValue(), 0, chunk -> {
+                    List<wireCodec.Reserve> chunkItems = new ArrayList<>(chunk.size());
+                    for (int i : chunk) {
+                        BookingRequest b = bookings.get(i);
+                        items[i] = new wireCodec.Reserve(customerID, b.vehicleID(), ranges[i][0], ranges[i][1], b.wantWaitlist());
+                        chunkItems.add(items[i]);
+                    }
+                    return new wireCodec.PrepareBatch(txn, new wireCodec.ReserveBatch(customerID, chunkItems));
+                }, true, replies));
+            }
+
+            // local items while the peers work
+            for (int i : local) {
+                BookingRequest b = bookings.get(i);
+                results[i] = reserveVehicleLocalOnly(customerID, b.vehicleID(), ranges[i][0], ranges[i][1], b.wantWaitlist());
+            }
+
+            for (Map.Entry<String, List<Integer>> e : remote.entrySet()) {
+                String target = e.getKey();
+                String error = awaitBatch(calls.get(target));
+                int held = -1;
+                for (int i : e.getValue()) {
+                    if (replies[i] != null) {
+                        results[i] = replies[i].text();
+                        if (replies[i].ok()) held = i;
+                    } else {
+                        results[i] = (error != null) ? "ERR|UDP RESERVE error: " + error
+                                : "FAIL|You can only reserve one vehicle from office " + target;
+                    }
+                }
+
+                String txn = txns.get(target);
+                if (txn == null) continue; // not claimed, nothing was sent
+                if (held >= 0) {
+                    results[held] = payAndCommit(customerID, target, txn, items[held], replies[held], true);
+                } else {
+                    unclaimRemote(customerID, target);
+                    if (error != null) abort(target, txn);
+                }
+            }
+        }
+
+        List<String> out = Arrays.asList(results);
+        logServer("reserveVehicles", "customerID=" + customerID + ", items=" + n, out.toString());
+        return out;
+    }
+
+    @Override
+    public List<String> cancelReservations(String customerID, List<String> vehicleIDs) throws RemoteException {
+        return timedBatch("cancelReservations", vehicleIDs.size(), () -> doCancelReservations(customerID, vehicleIDs));
+    }
+
+    private List<String> doCancelReservations(String customerID, List<String> vehicleIDs) throws RemoteException {
+        int n = vehicleIDs.size();
+        String[] results = new String[n];
+
+        if (!IdCheck.isCustomer(customerID)) {
+            Arrays.fill(results, "Wrong customerID");
+        } else if (!isLocalUser(customerID)) {
+            Arrays.fill(results, "Wrong office of customer");
+        } else {
+            List<Integer> local = new ArrayList<>();
+            Map<String, List<Integer>> remote = new LinkedHashMap<>();
+            for (int i = 0; i < n; i++) {
+                String target = officeOfVehicle(vehicleIDs.get(i));
+                if (target.equals(office)) local.add(i);
+                else remote.computeIfAbsent(target, k -> new ArrayList<>()).add(i);
+            }
+
+            wireCodec.Reply[] replies = new wireCodec.Reply[n];
+            Map<String, CompletableFuture<Void>> calls = new LinkedHashMap<>();
+            for (Map.Entry<String, List<Integer>> e : remote.entrySet()) {
+                calls.put(e.getKey(), batchToOffice(e.getKey(), e.getValue(), 0, chunk -> {
+                    List<String> ids = new ArrayList<>(chunk.size());
+                    for (int i : chunk) ids.add(vehicleIDs.get(i));
+                    return new wireCodec.CancelBatch(customerID, ids);
+                }, false, replies));
+            }
+
+            for (int i : local) results[i] = cancelReservationLocalOnly(customerID, vehicleIDs.get(i));
+
+            for (Map.Entry<String, List<Integer>> e : remote.entrySet()) {
+                String error = awaitBatch(calls.get(e.getKey()));
+                for (int i : e.getValue()) {
+                    if (replies[i] != null) {
+                        results[i] = replies[i].message();
+                        if (replies[i].ok()) refundRemote(customerID, e.getKey(), replies[i].cents());
+                    } else {
+                        results[i] = "ERR|UDP CANCEL error: " + error;
+                    }
+                }
+            }
+        }
+
+        List<String> out = Arrays.asList(results);
+        logServer("cancelReservations", "customerID=" + customerID + ", items=" + n, out.toString());
+        return out;
+    }
+
+    // sends the given items to one office BATCH_ITEMS at a time; with stopOnSuccess the
+    // remaining chunks are not sent once an item succeeds, leaving their replies null
+    private CompletableFuture<Void> batchToOffice(String target, List<Integer> items, int from,
+                                                  Function<List<Integer>, Object> message, boolean stopOnSuccess,
+                                                  wireCodec.Reply[] replies) {
+        List<Integer> chunk = items.subList(from, Math.min(items.size(), from + BATCH_ITEMS));
+        return udp.requestBatch(target, message.apply(chunk), chunk.size()).thenCompose(rs -> {
+            boolean success = false;
+            for (int k = 0; k < chunk.size(); k++) {
+                replies[chunk.get(k)] = rs.get(k);
+                success |= rs.get(k).ok();
+            }
+            int next = from + chunk.size();
+            if (next >= items.size() || (stopOnSuccess && success)) return CompletableFuture.completedFuture(null);
+            return batchToOffice(target, items, next, message, stopOnSuccess, replies);
+        });
+    }
+
+    // null once the office answered every chunk it was sent, else why it stopped
+    private static String awaitBatch(CompletableFuture<Void> call) {
+        if (call == null) return null;
+        try {
+            call.get();
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause().getMessage();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "interrupted";
+        }
+    }
 
+    private static String officeOfVehicle(String vehicleID) {
+        return (vehicleID == null || vehicleID.length() < 3) ? "" : vehicleID.substring(0, 3).toUpperCase();
     }
 }
 
@@ -1,16 +1,35 @@
 package server.update;
 
+import common.Topology;
+
+import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.rmi.server.ExportException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+// Starts the offices given on the command line (all offices of the topology when none are given),
+// each bound under its code in the registry on its own RMI port.
+//   java -Ddvrms.topology=topology.properties server.update.serverMain WPG
 public class serverMain {
     public static void main(String[] args) {
         try{
-            Registry reg = LocateRegistry.createRegistry(1099);
-            reg.rebind("MTL", new officeServer("MTL"));
-            reg.rebind("WPG", new officeServer("WPG"));
-            reg.rebind("BNF", new officeServer("BNF"));
-            System.out.println("RMI registry ready. Bound: MTL, WPG, BNF");
+            Topology topology = Topology.get();
+            List<String> codes = args.length == 0 ? topology.codes() : List.of(args);
+
+            Map<Integer, Registry> registries = new HashMap<>();
+            for (String code : codes) {
+                Topology.Office o = topology.office(code);
+                Registry reg = registries.get(o.rmiPort());
+                if (reg == null) {
+                    reg = registry(o.rmiPort());
+                    registries.put(o.rmiPort(), reg);
+                }
+                reg.rebind(o.code(), new officeServer(o.code()));
+                System.out.println("Office " + o.code() + " ready. RMI port " + o.rmiPort() + ", UDP port " + o.udpPort());
+            }
 
 
         } catch (Exception e) {
@@ -18,4 +37,13 @@ public class serverMain {
         }
 
     }
+
+    // offices of one host may share a registry: the first process creates it, the others bind into it
+    private static Registry registry(int port) throws RemoteException {
+        try {
+            return LocateRegistry.createRegistry(port);
+        } catch (ExportException e) {
+            return LocateRegistry.getRegistry(port);
+        }
+    }
 }
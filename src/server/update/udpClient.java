@@ -0,0 +1,178 @@
+package server.update;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import server.metrics.Metrics;
+
+// Inter-office UDP client shared by all requests of one office.
+// One channel for every peer, replies matched to calls by request ID,
+// lost datagrams resent with exponential backoff until the attempts run out.
+// Requests go out in the binary wireCodec format unless dvrms.udp.protocol=text.
+//
+// Tuning (system properties):
+//   dvrms.udp.protocol       binary or text (default binary)
+//   dvrms.udp.timeoutMillis  wait per attempt before resending (default 1000)
+//   dvrms.udp.retries        resends after the first attempt (default 2)
+//   dvrms.udp.backoffMillis  pause before the first resend, doubled each time (default 100)
+// Round trips are recorded per peer as udp.rtt.<office>, measured from the last transmission.
+class udpClient {
+    private static final long TIMEOUT_MILLIS = Long.getLong("dvrms.udp.timeoutMillis", 1000);
+    private static final int RETRIES = Integer.getInteger("dvrms.udp.retries", 2);
+    private static final long BACKOFF_MILLIS = Long.getLong("dvrms.udp.backoffMillis", 100);
+    private static final boolean TEXT = "text".equalsIgnoreCase(System.getProperty("dvrms.udp.protocol", "binary"));
+
+    // encode buffer of the calling / timer thread; a resend encodes the request again
+    private static final ThreadLocal<ByteBuffer> OUT = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(4096));
+
+    private final Function<String, InetSocketAddress> resolver;
+    private final DatagramChannel channel;
+    private final ScheduledExecutorService timer;
+    private final Metrics metrics;
+
+    private final ConcurrentHashMap<String, InetSocketAddress> peers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Call> pending = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+
+    private static final class Call {
+        final long id;
+        final String target;
+        final InetSocketAddress peer;
+        final Object body;
+        final CompletableFuture<Object> future = new CompletableFuture<>();
+        int attempt;
+        volatile long sentAt;
+
+        Call(long id, String target, InetSocketAddress peer, Object body) {
+            this.id = id;
+            this.target = target;
+            this.peer = peer;
+            this.body = body;
+        }
+    }
+
+    udpClient(String office, Function<String, InetSocketAddress> resolver, Metrics metrics) throws IOException {
+        this.resolver = resolver;
+        this.metrics = metrics;
+        this.channel = DatagramChannel.open();
+        channel.bind(null);
+
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "udp-timer-" + office);
+            t.setDaemon(true);
+            return t;
+        });
+
+        Thread receiver = new Thread(this::receiveLoop, "udp-client-" + office);
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    // completes with the peer's reply, or exceptionally once every attempt timed out
+    CompletableFuture<wireCodec.Reply> request(String targetOffice, Object body) {
+        return send(targetOffice, body).thenApply(r -> r instanceof wireCodec.Reply reply
+                ? reply : new wireCodec.Reply(wireCodec.Status.ERROR, "ERR|Unexpected reply"));
+    }
+
+    // per-item replies of a batch; a single reply (BUSY, error) stands for every item
+    CompletableFuture<List<wireCodec.Reply>> requestBatch(String targetOffice, Object batch, int items) {
+        return send(targetOffice, batch).thenApply(r -> {
+            if (r instanceof wireCodec.BatchReply b && b.items().size() == items) return b.items();
+            wireCodec.Reply one = r instanceof wireCodec.Reply reply
+                    ? reply : new wireCodec.Reply(wireCodec.Status.ERROR, "ERR|Unexpected reply");
+            return Collections.nCopies(items, one);
+        });
+    }
+
+    private CompletableFuture<Object> send(String targetOffice, Object body) {
+        long id = nextId.incrementAndGet();
+        InetSocketAddress peer;
+        try {
+            peer = peers.computeIfAbsent(targetOffice, resolver);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e); // unknown office
+        }
+        Call c = new Call(id, targetOffice, peer, body);
+
+        pending.put(id, c);
+        transmit(c);
+        return c.future;
+    }
+
+    private void transmit(Call c) {
+        if (c.future.isDone()) return;
+        try {
+            c.sentAt = System.nanoTime();
+            channel.send(encode(c), c.peer);
+        } catch (IOException e) {
+            // handled like a lost datagram: the timeout below retries it
+        } catch (RuntimeException e) {
+            // the message cannot be encoded (too big for the buffer): no attempt would do better
+            pending.remove(c.id);
+            metrics.counter("udp.unsendable." + c.target).increment();
+            c.future.completeExceptionally(e);
+            return;
+        }
+        timer.schedule(() -> onTimeout(c), TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void onTimeout(Call c) {
+        if (c.future.isDone()) return;
+        if (c.attempt < RETRIES) {
+            long backoff = BACKOFF_MILLIS << c.attempt;
+            c.attempt++;
+            metrics.counter("udp.retries." + c.target).increment();
+            timer.schedule(() -> transmit(c), backoff, TimeUnit.MILLISECONDS);
+        } else {
+            pending.remove(c.id);
+            metrics.counter("udp.timeouts." + c.target).increment();
+            c.future.completeExceptionally(new SocketTimeoutException(
+                    "no reply from " + c.target + " after " + (RETRIES + 1) + " attempts"));
+        }
+    }
+
+    private static ByteBuffer encode(Call c) {
+        if (TEXT) return ByteBuffer.wrap(wireCodec.toText(c.id, c.body).getBytes(StandardCharsets.UTF_8));
+        ByteBuffer out = OUT.get().clear();
+        wireCodec.encode(c.id, c.body, out);
+        return out.flip();
+    }
+
+    private void receiveLoop() {
+        ByteBuffer buf = ByteBuffer.allocateDirect(wireCodec.MAX_DATAGRAM);
+        while (channel.isOpen()) {
+            try {
+                buf.clear();
+                channel.receive(buf);
+                buf.flip();
+
+                // peers answer in the format they were asked in, but accept either
+                wireCodec.Frame f = wireCodec.isBinary(buf)
+                        ? wireCodec.decode(buf)
+                        : wireCodec.fromText(StandardCharsets.UTF_8.decode(buf).toString(), true);
+                if (!(f.body() instanceof wireCodec.Reply || f.body() instanceof wireCodec.BatchReply)) continue;
+                Call c = pending.remove(f.requestId());
+                if (c == null) continue;
+                metrics.histogram("udp.rtt." + c.target).record(System.nanoTime() - c.sentAt);
+                c.future.complete(f.body());
+            } catch (RuntimeException e) {
+                // not one of ours or truncated, drop it
+            } catch (IOException e) {
+                if (channel.isOpen()) e.printStackTrace();
+            }
+        }
+    }
+}
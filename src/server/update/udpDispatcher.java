@@ -0,0 +1,216 @@
+package server.update;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+// Inter-office UDP listener. One thread receives datagrams and hands each one, with its own copy
+// of the payload, to a bounded worker pool; a slow RESERVE no longer holds up every FIND behind it.
+// When the queue is full the sender gets a BUSY reply straight away instead of waiting for a timeout.
+// On a JVM with virtual threads (Java 21+) each datagram gets its own virtual thread instead, so a
+// request blocked on a vehicle lock or the journal holds no platform thread; workers + queueSize
+// still bounds how many are in flight before the sender is told BUSY.
+// Binary (wireCodec) and legacy text requests are both accepted and answered in the same format.
+//
+// Tuning (system properties):
+//   dvrms.udp.workers         worker threads per office (default 2 x cores)
+//   dvrms.udp.queueSize       datagrams waiting for a worker (default 1024)
+//   dvrms.udp.virtualThreads  use virtual threads when the JVM has them (default true)
+class udpDispatcher {
+    private static final int WORKERS =
+            Integer.getInteger("dvrms.udp.workers", 2 * Runtime.getRuntime().availableProcessors());
+    private static final int QUEUE_SIZE = Integer.getInteger("dvrms.udp.queueSize", 1024);
+    private static final boolean VIRTUAL_THREADS =
+            Boolean.parseBoolean(System.getProperty("dvrms.udp.virtualThreads", "true"));
+
+    // replies to recently seen request IDs, so a retried RESERVE/CANCEL is answered, not run twice
+    private static final int RECENT_REPLIES = 4096;
+
+    private static final wireCodec.Reply BUSY = new wireCodec.Reply(wireCodec.Status.BUSY, "ERR|Busy");
+
+    // reply encode buffers, one per reply being sent; not per thread, virtual threads come and go
+    private final ConcurrentLinkedQueue<ByteBuffer> outBuffers = new ConcurrentLinkedQueue<>();
+
+    private final DatagramChannel channel;
+    private final Function<Object, Object> handler;
+    private final ExecutorService workers;
+    // requests in flight on virtual threads; null with the pool, whose queue is the bound
+    private final Semaphore inFlight;
+
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> recentReplies = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<String> recentOrder = new ConcurrentLinkedQueue<>();
+    // entries in recentOrder; ConcurrentLinkedQueue.size() walks the whole queue
+    private final AtomicInteger recentCount = new AtomicInteger();
+
+    // handler answers a wireCodec request with a Reply, or a BatchReply for a batch
+    udpDispatcher(String office, int port, Function<Object, Object> handler) throws IOException {
+        this.handler = handler;
+        this.channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(port));
+
+        ExecutorService virtual = VIRTUAL_THREADS ? virtualThreadExecutor() : null;
+        if (virtual != null) {
+            this.workers = virtual;
+            this.inFlight = new Semaphore(WORKERS + QUEUE_SIZE);
+        } else {
+            AtomicInteger n = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(WORKERS, WORKERS, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(QUEUE_SIZE), r -> {
+                Thread t = new Thread(r, "udp-worker-" + office + "-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            pool.allowCoreThreadTimeOut(true);
+            this.workers = pool;
+            this.inFlight = null;
+        }
+
+        Thread t = new Thread(this::receiveLoop, "udp-listener-" + office);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void receiveLoop() {
+        ByteBuffer buf = ByteBuffer.allocateDirect(wireCodec.MAX_DATAGRAM);
+        while (channel.isOpen()) {
+            try {
+                buf.clear();
+                SocketAddress from = channel.receive(buf);
+                buf.flip();
+                ByteBuffer payload = ByteBuffer.allocate(buf.remaining()).put(buf).flip();
+
+                if (inFlight != null && !inFlight.tryAcquire()) {
+                    rejectBusy(payload, from);
+                    continue;
+                }
+                try {
+                    workers.execute(() -> {
+                        try {
+                            serve(payload, from);
+                        } finally {
+                            if (inFlight != null) inFlight.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    if (inFlight != null) inFlight.release();
+                    rejectBusy(payload, from);
+                }
+            } catch (IOException e) {
+                if (channel.isOpen()) e.printStackTrace();
+            }
+        }
+    }
+
+    private void serve(ByteBuffer payload, SocketAddress from) {
+        boolean binary = wireCodec.isBinary(payload);
+        long textId = binary ? -1 : textId(payload);
+        wireCodec.Frame f;
+        try {
+            f = binary ? wireCodec.decode(payload)
+                    : wireCodec.fromText(StandardCharsets.UTF_8.decode(payload).toString().trim(), false);
+        } catch (RuntimeException e) {
+            // a bad text request is answered, like the old handler did; a bad binary one is dropped
+            if (!binary) {
+                String why = e instanceof IllegalArgumentException ? e.getMessage() : "ERR|" + e.getMessage();
+                reply(false, textId, wireCodec.Reply.of(why), from);
+            }
+            return;
+        }
+
+        if (f.requestId() < 0) {
+            reply(binary, -1, handler.apply(f.body()), from);
+            return;
+        }
+
+        // a repeated request ID gets the first reply again
+        String key = from + "#" + f.requestId();
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> seen = recentReplies.putIfAbsent(key, mine);
+        if (seen == null) {
+            recentOrder.add(key);
+            if (recentCount.incrementAndGet() > RECENT_REPLIES) {
+                String old = recentOrder.poll();
+                if (old != null) {
+                    recentCount.decrementAndGet();
+                    recentReplies.remove(old);
+                }
+            }
+            mine.complete(handler.apply(f.body()));
+            seen = mine;
+        }
+        // still running on another worker: stay quiet, the caller will retry
+        if (seen.isDone()) reply(binary, f.requestId(), seen.join(), from);
+    }
+
+    private void rejectBusy(ByteBuffer payload, SocketAddress from) {
+        if (wireCodec.isBinary(payload)) {
+            // request ID sits right after magic, version, opcode and status
+            if (payload.remaining() >= 12) reply(true, payload.getLong(payload.position() + 4), BUSY, from);
+        } else {
+            reply(false, textId(payload), BUSY, from);
+        }
+    }
+
+    private void reply(boolean binary, long id, Object r, SocketAddress to) {
+        try {
+            if (binary) {
+                ByteBuffer out = outBuffers.poll();
+                if (out == null) out = ByteBuffer.allocateDirect(wireCodec.MAX_DATAGRAM);
+                try {
+                    out.clear();
+                    try {
+                        wireCodec.encode(id, r, out);
+                    } catch (BufferOverflowException e) {
+                        out.clear();
+                        wireCodec.encode(id, new wireCodec.Reply(wireCodec.Status.ERROR, "ERR|Reply too large"), out);
+                    }
+                    channel.send(out.flip(), to);
+                } finally {
+                    outBuffers.offer(out);
+                }
+            } else {
+                channel.send(ByteBuffer.wrap(wireCodec.toText(id, r).getBytes(StandardCharsets.UTF_8)), to);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() when the running JVM has it; the build targets Java 17
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    // "#<id>|..." -> id, -1 when untagged
+    private static long textId(ByteBuffer payload) {
+        if (payload.remaining() == 0 || payload.get(payload.position()) != '#') return -1;
+        long id = 0;
+        for (int i = payload.position() + 1; i < payload.limit(); i++) {
+            byte b = payload.get(i);
+            if (b == '|') return id;
+            if (b < '0' || b > '9') return -1;
+            id = id * 10 + (b - '0');
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,555 @@
+package server.update;
+
+import server.model.Reservation;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Inter-office message format.
+//
+// Binary (version 2), big endian, written straight into / read straight out of ByteBuffers:
+//   magic 0xD7 | version | opcode | status | request id (8 bytes) | fields of the opcode
+//   FIND     type:str after:str
+//   RESERVE  customerID:str vehicleID:str startDay:int endDay:int wantWaitlist:byte
+//   CANCEL   customerID:str vehicleID:str
+//   RESERVE_BATCH  customerID:str count:u16 (vehicleID:str startDay:int endDay:int wantWaitlist:byte)*
+//   CANCEL_BATCH   customerID:str count:u16 vehicleID:str*
+//   LIST     customerID:str
+//   AVAILABLE  type:str startDay:int endDay:int after:str
+//   INVALIDATE office:str type:str version:long   (the sender's inventory of the type changed)
+//   PREPARE  txn:str customerID:str vehicleID:str startDay:int endDay:int wantWaitlist:byte
+//   PREPARE_BATCH  txn:str customerID:str count:u16 (vehicleID:str startDay:int endDay:int wantWaitlist:byte)*
+//   COMMIT   txn:str customerID:str vehicleID:str startDay:int endDay:int wantWaitlist:byte
+//   ABORT    txn:str
+//   CONFIRM  txn:str customerID:str vehicleID:str cents:long
+//   REFUND   customerID:str vehicleID:str cents:long
+//   UPDATE   customerID:str vehicleID:str startDay:int endDay:int
+//   REPLY    text:str next:str   (outcome in the status byte)
+//   BATCH_REPLY    count:u16 (status:byte text:str)*
+// str = u16 byte length + UTF-8 bytes.
+//
+// FIND and AVAILABLE are paged: a reply holds as many vehicles as fit in dvrms.udp.maxPayload bytes, and a
+// non-empty next is the last vehicle ID sent, to be passed back as after for the following page.
+//
+// Cross-office bookings are two-phase: the vehicle's office holds the seat on PREPARE and names its
+// price, the customer's office takes the budget and sends COMMIT (or ABORT). A hold nobody decides
+// on expires. CONFIRM is the other way round, for a waitlisted seat given to another office's
+// customer; REFUND gives back the price of a committed seat the vehicle's office dropped.
+// RESERVE and RESERVE_BATCH (one phase) are still decoded, but offices answer them with an ERROR reply
+// reading "ERR|Upgrade required: ..." instead of booking: they would take the money at the vehicle's office.
+// Replies that move money read "SUCCESS|<cents>|<message>" (see Reply.settled).
+//
+// The pipe-delimited text format ("#<id>|RESERVE|...") is still understood, so offices can be
+// upgraded one at a time; dvrms.udp.protocol=text makes an office send it as well. A text FIND
+// without an after field gets the whole list in one datagram, as before.
+//
+// Tuning (system properties):
+//   dvrms.udp.maxPayload  largest datagram an office sends on its own account (default 1400, one Ethernet frame)
+final class wireCodec {
+    private wireCodec() {}
+
+    static final byte MAGIC = (byte) 0xD7;
+    static final byte VERSION = 2;
+
+    static final int MAX_PAYLOAD = Integer.getInteger("dvrms.udp.maxPayload", 1400);
+    // receive buffers take anything UDP can carry, so an oversized datagram is never cut short
+    static final int MAX_DATAGRAM = 65507;
+
+    static final byte OP_FIND = 1;
+    static final byte OP_RESERVE = 2;
+    static final byte OP_CANCEL = 3;
+    static final byte OP_RESERVE_BATCH = 4;
+    static final byte OP_CANCEL_BATCH = 5;
+    static final byte OP_LIST = 6;
+    static final byte OP_AVAILABLE = 7;
+    static final byte OP_INVALIDATE = 8;
+    static final byte OP_PREPARE = 9;
+    static final byte OP_PREPARE_BATCH = 10;
+    static final byte OP_COMMIT = 11;
+    static final byte OP_ABORT = 12;
+    static final byte OP_CONFIRM = 13;
+    static final byte OP_REFUND = 14;
+    static final byte OP_UPDATE = 15;
+    static final byte OP_BATCH_REPLY = 126;
+    static final byte OP_REPLY = 127;
+
+    // separates the items of a text batch reply
+    private static final char RS = '\u001E';
+
+    enum Status { OK, FAIL, ERROR, BUSY }
+
+    // after: last vehicle ID of the previous page, "" for the first; null asks for everything at once
+    record Find(String vehicleType, String after) {
+    }
+
+    record Reserve(String customerID, String vehicleID, int startDay, int endDay, boolean wantWaitlist) {
+    }
+
+    record Cancel(String customerID, String vehicleID) {
+    }
+
+    // items all carry customerID; it goes over the wire once
+    record ReserveBatch(String customerID, List<Reserve> items) {
+    }
+
+    record CancelBatch(String customerID, List<String> vehicleIDs) {
+    }
+
+    record BatchReply(List<Reply> items) {
+    }
+
+    // the customer's reservations at the receiving office
+    record ListReservations(String customerID) {
+    }
+
+    // free capacity of the receiving office's vehicles of a type over [startDay, endDay]; after as for Find
+    record Available(String vehicleType, int startDay, int endDay, String after) {
+    }
+
+    // office's vehicles of the lower-cased type changed; version only ever grows
+    record Invalidate(String office, String vehicleType, long version) {
+    }
+
+    // txn: unique per booking attempt, so any of these can be sent again without doing it twice
+    record Prepare(String txn, Reserve item) {
+    }
+
+    // holds the first item that fits; the ones after it are refused
+    record PrepareBatch(String txn, ReserveBatch batch) {
+    }
+
+    // item repeats the booking, so an office that lost the hold (restart) can still tell if it was kept
+    record Commit(String txn, Reserve item) {
+    }
+
+    record Abort(String txn) {
+    }
+
+    // the vehicle's office asks the customer's office to pay for a seat it gave from the waitlist
+    record Confirm(String txn, String customerID, String vehicleID, long cents) {
+    }
+
+    record Refund(String customerID, String vehicleID, long cents) {
+    }
+
+    // moves the customer's reservation on the vehicle to new dates, in place
+    record Update(String customerID, String vehicleID, int startDay, int endDay) {
+    }
+
+    // text is what the office would have answered over RMI, so it can be handed to the customer as is
+    // next: where the following page starts, "" when this is the last one
+    record Reply(Status status, String text, String next) {
+        Reply(Status status, String text) {
+            this(status, text, "");
+        }
+
+        boolean ok() {
+            return status == Status.OK;
+        }
+
+        static Reply settled(long cents, String message) {
+            return new Reply(Status.OK, "SUCCESS|" + cents + "|" + message.substring("SUCCESS|".length()));
+        }
+
+        // the amount of a settled reply, 0 for any other
+        long cents() {
+            int end = amountEnd();
+            return end < 0 ? 0 : Long.parseLong(text.substring(8, end));
+        }
+
+        // the text without the amount, as the customer should see it
+        String message() {
+            int end = amountEnd();
+            return end < 0 ? text : "SUCCESS|" + text.substring(end + 1);
+        }
+
+        // where the digits of "SUCCESS|<cents>|..." end, -1 when the reply is not settled
+        private int amountEnd() {
+            if (!ok() || !text.startsWith("SUCCESS|")) return -1;
+            int i = 8;
+            while (i < text.length() && Character.isDigit(text.charAt(i))) i++;
+            return (i > 8 && i < text.length() && text.charAt(i) == '|') ? i : -1;
+        }
+
+        // outcome of a handler's result string
+        static Reply of(String text) {
+            if (text.startsWith("SUCCESS|")) return new Reply(Status.OK, text);
+            if (text.startsWith("ERR|Busy")) return new Reply(Status.BUSY, text);
+            if (text.startsWith("ERR|")) return new Reply(Status.ERROR, text);
+            return new Reply(Status.FAIL, text);
+        }
+    }
+
+    record Frame(long requestId, Object body) {
+    }
+
+    private static final ThreadLocal<CharsetEncoder> ENCODER =
+            ThreadLocal.withInitial(StandardCharsets.UTF_8::newEncoder);
+
+    /* ============================ Binary ============================ */
+
+    static boolean isBinary(ByteBuffer in) {
+        return in.remaining() > 0 && in.get(in.position()) == MAGIC;
+    }
+
+    // throws BufferOverflowException when the message does not fit in out
+    static void encode(long requestId, Object body, ByteBuffer out) {
+        byte op;
+        Status status = Status.OK;
+        if (body instanceof Find) op = OP_FIND;
+        else if (body instanceof Reserve) op = OP_RESERVE;
+        else if (body instanceof Cancel) op = OP_CANCEL;
+        else if (body instanceof ReserveBatch) op = OP_RESERVE_BATCH;
+        else if (body instanceof CancelBatch) op = OP_CANCEL_BATCH;
+        else if (body instanceof BatchReply) op = OP_BATCH_REPLY;
+        else if (body instanceof ListReservations) op = OP_LIST;
+        else if (body instanceof Available) op = OP_AVAILABLE;
+        else if (body instanceof Invalidate) op = OP_INVALIDATE;
+        else if (body instanceof Prepare) op = OP_PREPARE;
+        else if (body instanceof PrepareBatch) op = OP_PREPARE_BATCH;
+        else if (body instanceof Commit) op = OP_COMMIT;
+        else if (body instanceof Abort) op = OP_ABORT;
+        else if (body instanceof Confirm) op = OP_CONFIRM;
+        else if (body instanceof Refund) op = OP_REFUND;
+        else if (body instanceof Update) op = OP_UPDATE;
+        else if (body instanceof Reply r) {
+            op = OP_REPLY;
+            status = r.status();
+        } else throw new IllegalArgumentException("Not a wire message: " + body);
+
+        out.put(MAGIC).put(VERSION).put(op).put((byte) status.ordinal()).putLong(requestId);
+
+        if (body instanceof Find f) {
+            putString(out, f.vehicleType());
+            putString(out, f.after() == null ? "" : f.after());
+        } else if (body instanceof Reserve r) {
+            putReserve(out, r);
+        } else if (body instanceof Prepare p) {
+            putString(out, p.txn());
+            putReserve(out, p.item());
+        } else if (body instanceof Commit c) {
+            putString(out, c.txn());
+            putReserve(out, c.item());
+        } else if (body instanceof Abort a) {
+            putString(out, a.txn());
+        } else if (body instanceof Confirm c) {
+            putString(out, c.txn());
+            putString(out, c.customerID());
+            putString(out, c.vehicleID());
+            out.putLong(c.cents());
+        } else if (body instanceof Refund r) {
+            putString(out, r.customerID());
+            putString(out, r.vehicleID());
+            out.putLong(r.cents());
+        } else if (body instanceof Update u) {
+            putString(out, u.customerID());
+            putString(out, u.vehicleID());
+            out.putInt(u.startDay()).putInt(u.endDay());
+        } else if (body instanceof Cancel c) {
+            putString(out, c.customerID());
+            putString(out, c.vehicleID());
+        } else if (body instanceof ReserveBatch b) {
+            putBatch(out, b);
+        } else if (body instanceof PrepareBatch p) {
+            putString(out, p.txn());
+            putBatch(out, p.batch());
+        } else if (body instanceof CancelBatch b) {
+            putString(out, b.customerID());
+            out.putShort((short) b.vehicleIDs().size());
+            for (String id : b.vehicleIDs()) putString(out, id);
+        } else if (body instanceof ListReservations l) {
+            putString(out, l.customerID());
+        } else if (body instanceof Available a) {
+            putString(out, a.vehicleType());
+            out.putInt(a.startDay()).putInt(a.endDay());
+            putString(out, a.after() == null ? "" : a.after());
+        } else if (body instanceof Invalidate i) {
+            putString(out, i.office());
+            putString(out, i.vehicleType());
+            out.putLong(i.version());
+        } else if (body instanceof BatchReply b) {
+            out.putShort((short) b.items().size());
+            for (Reply r : b.items()) {
+                out.put((byte) r.status().ordinal());
+                putString(out, r.text());
+            }
+        } else {
+            putString(out, ((Reply) body).text());
+            putString(out, ((Reply) body).next());
+        }
+    }
+
+    static Frame decode(ByteBuffer in) {
+        if (in.get() != MAGIC) throw new IllegalArgumentException("Not a binary message");
+        byte version = in.get();
+        if (version != VERSION) throw new IllegalArgumentException("Unsupported version " + version);
+        byte op = in.get();
+        Status status = Status.values()[in.get()];
+        long id = in.getLong();
+
+        Object body = switch (op) {
+            case OP_FIND -> new Find(getString(in), getString(in));
+            case OP_RESERVE -> getReserve(in);
+            case OP_CANCEL -> new Cancel(getString(in), getString(in));
+            case OP_RESERVE_BATCH -> getBatch(in);
+            case OP_PREPARE -> new Prepare(getString(in), getReserve(in));
+            case OP_PREPARE_BATCH -> new PrepareBatch(getString(in), getBatch(in));
+            case OP_COMMIT -> new Commit(getString(in), getReserve(in));
+            case OP_ABORT -> new Abort(getString(in));
+            case OP_CONFIRM -> new Confirm(getString(in), getString(in), getString(in), in.getLong());
+            case OP_REFUND -> new Refund(getString(in), getString(in), in.getLong());
+            case OP_UPDATE -> new Update(getString(in), getString(in), in.getInt(), in.getInt());
+            case OP_CANCEL_BATCH -> {
+                String customerID = getString(in);
+                int n = Short.toUnsignedInt(in.getShort());
+                List<String> ids = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) ids.add(getString(in));
+                yield new CancelBatch(customerID, ids);
+            }
+            case OP_LIST -> new ListReservations(getString(in));
+            case OP_AVAILABLE -> new Available(getString(in), in.getInt(), in.getInt(), getString(in));
+            case OP_INVALIDATE -> new Invalidate(getString(in), getString(in), in.getLong());
+            case OP_BATCH_REPLY -> {
+                int n = Short.toUnsignedInt(in.getShort());
+                List<Reply> items = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) items.add(new Reply(Status.values()[in.get()], getString(in)));
+                yield new BatchReply(items);
+            }
+            case OP_REPLY -> new Reply(status, getString(in), getString(in));
+            default -> throw new IllegalArgumentException("Unknown opcode " + op);
+        };
+        return new Frame(id, body);
+    }
+
+    private static void putReserve(ByteBuffer out, Reserve r) {
+        putString(out, r.customerID());
+        putString(out, r.vehicleID());
+        out.putInt(r.startDay()).putInt(r.endDay()).put((byte) (r.wantWaitlist() ? 1 : 0));
+    }
+
+    private static Reserve getReserve(ByteBuffer in) {
+        return new Reserve(getString(in), getString(in), in.getInt(), in.getInt(), in.get() != 0);
+    }
+
+    private static void putBatch(ByteBuffer out, ReserveBatch b) {
+        putString(out, b.customerID());
+        out.putShort((short) b.items().size());
+        for (Reserve r : b.items()) {
+            putString(out, r.vehicleID());
+            out.putInt(r.startDay()).putInt(r.endDay()).put((byte) (r.wantWaitlist() ? 1 : 0));
+        }
+    }
+
+    private static ReserveBatch getBatch(ByteBuffer in) {
+        String customerID = getString(in);
+        int n = Short.toUnsignedInt(in.getShort());
+        List<Reserve> items = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            items.add(new Reserve(customerID, getString(in), in.getInt(), in.getInt(), in.get() != 0));
+        }
+        return new ReserveBatch(customerID, items);
+    }
+
+    private static void putString(ByteBuffer out, String s) {
+        int lenAt = out.position();
+        out.putShort((short) 0);
+        CharsetEncoder enc = ENCODER.get().reset();
+        CoderResult r = enc.encode(CharBuffer.wrap(s), out, true);
+        if (r.isOverflow()) throw new java.nio.BufferOverflowException();
+        enc.flush(out);
+        out.putShort(lenAt, (short) (out.position() - lenAt - 2));
+    }
+
+    private static String getString(ByteBuffer in) {
+        int len = Short.toUnsignedInt(in.getShort());
+        byte[] bytes = new byte[len];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /* ============================ Legacy text ============================ */
+
+    static String toText(long requestId, Object body) {
+        String msg;
+        if (body instanceof Find f) {
+            msg = "FIND|" + f.vehicleType() + (f.after() == null ? "" : "|" + f.after());
+        } else if (body instanceof Reserve r) {
+            msg = "RESERVE|" + reserveText(r);
+        } else if (body instanceof Prepare p) {
+            msg = "PREPARE|" + p.txn() + "|" + reserveText(p.item());
+        } else if (body instanceof Commit c) {
+            msg = "COMMIT|" + c.txn() + "|" + reserveText(c.item());
+        } else if (body instanceof Abort a) {
+            msg = "ABORT|" + a.txn();
+        } else if (body instanceof Confirm c) {
+            msg = "CONFIRM|" + c.txn() + "|" + c.customerID() + "|" + c.vehicleID() + "|" + c.cents();
+        } else if (body instanceof Refund r) {
+            msg = "REFUND|" + r.customerID() + "|" + r.vehicleID() + "|" + r.cents();
+        } else if (body instanceof Update u) {
+            msg = "UPDATE|" + u.customerID() + "|" + u.vehicleID() + "|" + Reservation.formatDay(u.startDay())
+                    + "|" + Reservation.formatDay(u.endDay());
+        } else if (body instanceof Cancel c) {
+            msg = "CANCEL|" + c.customerID() + "|" + c.vehicleID();
+        } else if (body instanceof ReserveBatch b) {
+            msg = "RESERVE_BATCH|" + batchText(b);
+        } else if (body instanceof PrepareBatch p) {
+            msg = "PREPARE_BATCH|" + p.txn() + "|" + batchText(p.batch());
+        } else if (body instanceof CancelBatch b) {
+            msg = "CANCEL_BATCH|" + b.customerID() + "|" + String.join(";", b.vehicleIDs());
+        } else if (body instanceof ListReservations l) {
+            msg = "LIST|" + l.customerID();
+        } else if (body instanceof Available a) {
+            msg = "AVAILABLE|" + a.vehicleType() + "|" + Reservation.formatDay(a.startDay())
+                    + "|" + Reservation.formatDay(a.endDay()) + (a.after() == null ? "" : "|" + a.after());
+        } else if (body instanceof Invalidate i) {
+            msg = "INVALIDATE|" + i.office() + "|" + i.vehicleType() + "|" + i.version();
+        } else if (body instanceof BatchReply b) {
+            StringBuilder sb = new StringBuilder("BATCH|");
+            for (int i = 0; i < b.items().size(); i++) {
+                if (i > 0) sb.append(RS);
+                sb.append(b.items().get(i).text());
+            }
+            msg = sb.toString();
+        } else {
+            Reply r = (Reply) body;
+            msg = r.next().isEmpty() ? r.text() : "MORE|" + r.next() + "|" + r.text();
+        }
+        return requestId < 0 ? msg : "#" + requestId + "|" + msg;
+    }
+
+    private static String reserveText(Reserve r) {
+        return r.customerID() + "|" + r.vehicleID() + "|" + Reservation.formatDay(r.startDay())
+                + "|" + Reservation.formatDay(r.endDay()) + "|" + r.wantWaitlist();
+    }
+
+    private static String batchText(ReserveBatch b) {
+        StringBuilder sb = new StringBuilder(b.customerID()).append('|');
+        for (int i = 0; i < b.items().size(); i++) {
+            Reserve r = b.items().get(i);
+            if (i > 0) sb.append(';');
+            sb.append(r.vehicleID()).append(',').append(Reservation.formatDay(r.startDay()))
+                    .append(',').append(Reservation.formatDay(r.endDay())).append(',').append(r.wantWaitlist());
+        }
+        return sb.toString();
+    }
+
+    // "[#<id>|]OP|field|..." -> frame with id -1 when untagged; IllegalArgumentException for bad input
+    static Frame fromText(String msg, boolean isReply) {
+        long id = -1;
+        if (msg.startsWith("#")) {
+            int bar = msg.indexOf('|');
+            if (bar < 0) throw new IllegalArgumentException("Bad request tag");
+            id = Long.parseLong(msg.substring(1, bar));
+            msg = msg.substring(bar + 1);
+        }
+        if (isReply) {
+            if (msg.startsWith("BATCH|")) {
+                List<Reply> items = new ArrayList<>();
+                int from = 6;
+                while (true) {
+                    int end = msg.indexOf(RS, from);
+                    items.add(Reply.of((end < 0 ? msg.substring(from) : msg.substring(from, end)).trim()));
+                    if (end < 0) return new Frame(id, new BatchReply(items));
+                    from = end + 1;
+                }
+            }
+            if (msg.startsWith("MORE|")) {
+                int bar = msg.indexOf('|', 5);
+                return new Frame(id, new Reply(Status.OK, msg.substring(bar + 1), msg.substring(5, bar)));
+            }
+            return new Frame(id, Reply.of(msg.trim()));
+        }
+
+        List<String> p = split(msg);
+        switch (p.get(0)) {
+            case "FIND" -> {
+                return new Frame(id, new Find(p.get(1), p.size() > 2 ? p.get(2) : null));
+            }
+            case "RESERVE" -> {
+                return new Frame(id, parseReserve(p, 1));
+            }
+            case "PREPARE" -> {
+                return new Frame(id, new Prepare(p.get(1), parseReserve(p, 2)));
+            }
+            case "COMMIT" -> {
+                return new Frame(id, new Commit(p.get(1), parseReserve(p, 2)));
+            }
+            case "ABORT" -> {
+                return new Frame(id, new Abort(p.get(1)));
+            }
+            case "CONFIRM" -> {
+                return new Frame(id, new Confirm(p.get(1), p.get(2), p.get(3), Long.parseLong(p.get(4))));
+            }
+            case "REFUND" -> {
+                return new Frame(id, new Refund(p.get(1), p.get(2), Long.parseLong(p.get(3))));
+            }
+            case "PREPARE_BATCH" -> {
+                return new Frame(id, new PrepareBatch(p.get(1), parseBatch(p.get(2), p.get(3))));
+            }
+            case "UPDATE" -> {
+                Reserve r = parseReserve(p, 1);
+                return new Frame(id, new Update(r.customerID(), r.vehicleID(), r.startDay(), r.endDay()));
+            }
+            case "CANCEL" -> {
+                return new Frame(id, new Cancel(p.get(1), p.get(2)));
+            }
+            case "RESERVE_BATCH" -> {
+                return new Frame(id, parseBatch(p.get(1), p.get(2)));
+            }
+            case "LIST" -> {
+                return new Frame(id, new ListReservations(p.get(1)));
+            }
+            case "AVAILABLE" -> {
+                int[] range = Reservation.parseRange(p.get(2), p.get(3));
+                if (range == null) throw new IllegalArgumentException("Invalid date range.");
+                return new Frame(id, new Available(p.get(1), range[0], range[1], p.size() > 4 ? p.get(4) : null));
+            }
+            case "INVALIDATE" -> {
+                return new Frame(id, new Invalidate(p.get(1), p.get(2), Long.parseLong(p.get(3))));
+            }
+            case "CANCEL_BATCH" -> {
+                return new Frame(id, new CancelBatch(p.get(1), List.of(p.get(2).split(";"))));
+            }
+            default -> throw new IllegalArgumentException("ERR|UnknownOp");
+        }
+    }
+
+    // customerID|vehicleID|start|end[|wantWaitlist] from field i on
+    private static Reserve parseReserve(List<String> p, int i) {
+        int[] range = Reservation.parseRange(p.get(i + 2), p.get(i + 3));
+        if (range == null) throw new IllegalArgumentException("Invalid date range.");
+        boolean wantWaitlist = p.size() < i + 5 || Boolean.parseBoolean(p.get(i + 4));
+        return new Reserve(p.get(i), p.get(i + 1), range[0], range[1], wantWaitlist);
+    }
+
+    private static ReserveBatch parseBatch(String customerID, String list) {
+        List<Reserve> items = new ArrayList<>();
+        for (String item : list.split(";")) {
+            String[] f = item.split(",");
+            int[] range = Reservation.parseRange(f[1], f[2]);
+            if (range == null) throw new IllegalArgumentException("Invalid date range.");
+            items.add(new Reserve(customerID, f[0], range[0], range[1], f.length < 4 || Boolean.parseBoolean(f[3])));
+        }
+        return new ReserveBatch(customerID, items);
+    }
+
+    // split on '|' without compiling a regex
+    private static List<String> split(String msg) {
+        List<String> out = new ArrayList<>(6);
+        int from = 0;
+        while (true) {
+            int bar = msg.indexOf('|', from);
+            if (bar < 0) {
+                out.add(msg.substring(from).trim());
+                return out;
+            }
+            out.add(msg.substring(from, bar));
+            from = bar + 1;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package server.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// OccupancyIndex against a plain array of bookings per day over a small window
+class OccupancyIndexTest {
+    private static final int BASE = 20_000; // an epoch day in 2024
+    private static final int DAYS = 400;
+
+    @Test
+    void matchesDayCountsUnderRandomBookingsAndCancels() {
+        Random rnd = new Random(42);
+        OccupancyIndex index = new OccupancyIndex();
+        int[] days = new int[DAYS];
+        List<int[]> booked = new ArrayList<>();
+
+        for (int step = 0; step < 5_000; step++) {
+            if (booked.isEmpty() || rnd.nextInt(3) > 0) {
+                int s = rnd.nextInt(DAYS);
+                int e = Math.min(DAYS - 1, s + rnd.nextInt(30));
+                index.add(BASE + s, BASE + e, 1);
+                for (int d = s; d <= e; d++) days[d]++;
+                booked.add(new int[]{s, e});
+            } else {
+                int[] b = booked.remove(rnd.nextInt(booked.size()));
+                index.add(BASE + b[0], BASE + b[1], -1);
+                for (int d = b[0]; d <= b[1]; d++) days[d]--;
+            }
+
+            int s = rnd.nextInt(DAYS);
+            int e = s + rnd.nextInt(DAYS - s);
+            assertEquals(bruteMax(days, s, e), index.maxOver(BASE + s, BASE + e), "max over " + s + ".." + e);
+            if (step % 50 == 0) assertRuns(index, days, s, e);
+        }
+    }
+
+    @Test
+    void daysOutsideEveryBookingCountZero() {
+        OccupancyIndex index = new OccupancyIndex();
+        index.add(BASE + 10, BASE + 20, 2);
+
+        assertEquals(0, index.maxOver(BASE, BASE + 9));
+        assertEquals(0, index.maxOver(BASE + 21, BASE + 100));
+        assertEquals(2, index.maxOver(BASE + 20, BASE + 20));
+        assertEquals(0, index.maxOver(OccupancyIndex.MIN_DAY, OccupancyIndex.MIN_DAY));
+        assertEquals(0, index.maxOver(OccupancyIndex.MAX_DAY, OccupancyIndex.MAX_DAY));
+    }
+
+    @Test
+    void clearForgetsEveryBooking() {
+        OccupancyIndex index = new OccupancyIndex();
+        for (int d = 0; d < 200; d++) index.add(BASE + d, BASE + d + 3, 1);
+        index.clear();
+
+        assertEquals(0, index.maxOver(OccupancyIndex.MIN_DAY, OccupancyIndex.MAX_DAY));
+        index.add(BASE + 5, BASE + 5, 1);
+        assertEquals(1, index.maxOver(BASE, BASE + 10));
+    }
+
+    private static int bruteMax(int[] days, int s, int e) {
+        int max = 0;
+        for (int d = s; d <= e; d++) max = Math.max(max, days[d]);
+        return max;
+    }
+
+    // the runs tile [s, e] in order, are maximal, and each carries the count of its every day
+    private static void assertRuns(OccupancyIndex index, int[] days, int s, int e) {
+        List<int[]> runs = new ArrayList<>();
+        index.forEachRun(BASE + s, BASE + e, (rs, re, count) -> runs.add(new int[]{rs - BASE, re - BASE, count}));
+
+        int next = s;
+        int prevCount = -1;
+        for (int[] run : runs) {
+            assertEquals(next, run[0], "runs must be contiguous");
+            assertTrue(run[0] <= run[1], "empty run");
+            assertTrue(run[2] != prevCount, "adjacent runs with equal count " + run[2]);
+            for (int d = run[0]; d <= run[1]; d++) assertEquals(days[d], run[2], "day " + d);
+            next = run[1] + 1;
+            prevCount = run[2];
+        }
+        assertEquals(e + 1, next, "runs must end at " + e);
+    }
+}
@@ -0,0 +1,96 @@
+package server.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+// The compact store against the map-backed one: same answers to the same bookings and cancels
+class ReservationStoreTest {
+    private static final int BASE = 20_000;
+
+    @Test
+    void compactStoreAnswersLikeTheHeapStore() {
+        Random rnd = new Random(7);
+        ReservationStore heap = ReservationStore.create("heap");
+        ReservationStore compact = ReservationStore.create("compact");
+        List<Reservation> booked = new ArrayList<>();
+
+        for (int step = 0; step < 20_000; step++) {
+            String customer = "MTLU" + (1000 + rnd.nextInt(40));
+            if (booked.isEmpty() || rnd.nextInt(5) < 3) {
+                int s = BASE + rnd.nextInt(300);
+                Reservation r = new Reservation(customer, s, s + rnd.nextInt(10));
+                assertEquals(heap.add(r), compact.add(r), "add " + r);
+                booked.add(r);
+            } else if (rnd.nextInt(10) == 0) {
+                // never booked: both refuse
+                Reservation r = new Reservation(customer, BASE - 1, BASE - 1);
+                assertEquals(-1, heap.remove(r));
+                assertEquals(-1, compact.remove(r));
+            } else {
+                Reservation r = booked.remove(rnd.nextInt(booked.size()));
+                assertEquals(heap.remove(r), compact.remove(r), "remove " + r);
+            }
+
+            assertEquals(heap.size(), compact.size());
+            assertEquals(heap.first(customer), compact.first(customer), "first of " + customer);
+            assertEquals(heap.of(customer), compact.of(customer), "of " + customer);
+            if (step % 500 == 0) assertSameContents(heap, compact);
+        }
+    }
+
+    @Test
+    void keepsBookingOrderAcrossRemovals() {
+        ReservationStore compact = ReservationStore.create("compact");
+        List<Reservation> mine = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Reservation r = new Reservation("MTLU2000", BASE + 2 * i, BASE + 2 * i);
+            compact.add(r);
+            mine.add(r);
+        }
+        // removing most of them compacts the slots on the way
+        for (int i = 0; i < 50; i += 3) {
+            assertEquals(mine.size() - 1, compact.remove(mine.remove(0)));
+            if (!mine.isEmpty()) assertEquals(mine.size() - 1, compact.remove(mine.remove(mine.size() / 2)));
+        }
+
+        assertEquals(mine, compact.of("MTLU2000"));
+        assertEquals(mine.get(0), compact.first("MTLU2000"));
+    }
+
+    @Test
+    void emptiedStoreStartsOver() {
+        ReservationStore compact = ReservationStore.create("compact");
+        Reservation r = new Reservation("MTLU3000", BASE, BASE + 1);
+        assertEquals(1, compact.add(r));
+        assertEquals(0, compact.remove(r));
+
+        assertEquals(0, compact.size());
+        assertNull(compact.first("MTLU3000"));
+        assertEquals(List.of(), compact.all());
+        assertEquals(1, compact.add(r));
+    }
+
+    private static void assertSameContents(ReservationStore heap, ReservationStore compact) {
+        assertEquals(sorted(heap.all()), sorted(compact.all()));
+        Set<String> heapCustomers = new TreeSet<>();
+        Set<String> compactCustomers = new TreeSet<>();
+        heap.forEachCustomer(heapCustomers::add);
+        compact.forEachCustomer(compactCustomers::add);
+        assertEquals(heapCustomers, compactCustomers);
+    }
+
+    private static List<String> sorted(List<Reservation> rs) {
+        List<String> out = new ArrayList<>();
+        for (Reservation r : rs) out.add(r.customerID() + " " + r.startDay() + " " + r.endDay());
+        out.sort(null);
+        return out;
+    }
+}
@@ -0,0 +1,152 @@
+package server.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// One drain of a vehicle with one unit: a request is assigned when all of its days are free
+class WaitlistIndexTest {
+    private static final int DAYS = 60;
+
+    private static final WaitingList EARLY = new WaitingList("MTLU1001", 1, 5);   // days taken: no room
+    private static final WaitingList LATE = new WaitingList("MTLU1002", 10, 12);  // free days
+    private static final WaitingList INSIDE = new WaitingList("MTLU1003", 3, 4);  // free days, under EARLY's
+
+    @Test
+    void strictFifoStopsAtTheFirstRequestThatDoesNotFit() {
+        Vehicle v = new Vehicle();
+        v.book(1, 2);
+        WaitlistIndex queue = queueOf(EARLY, LATE, INSIDE);
+
+        assertEquals(0, queue.drain(WaitlistIndex.Policy.STRICT_FIFO, v::offer));
+        assertEquals(List.of(EARLY), v.offered, "nobody behind the head is offered");
+        assertEquals(List.of(EARLY, LATE, INSIDE), contents(queue));
+    }
+
+    @Test
+    void overlapFifoLetsOnlyRequestsOnOtherDaysOvertake() {
+        Vehicle v = new Vehicle();
+        v.book(1, 2);
+        WaitlistIndex queue = queueOf(EARLY, LATE, INSIDE);
+
+        assertEquals(1, queue.drain(WaitlistIndex.Policy.OVERLAP_FIFO, v::offer));
+        // INSIDE would fit, but EARLY asked for those days first
+        assertEquals(List.of(EARLY, LATE), v.offered);
+        assertEquals(List.of(EARLY, INSIDE), contents(queue), "kept in arrival order");
+    }
+
+    @Test
+    void bothPoliciesAssignEverythingOnceThereIsRoom() {
+        for (WaitlistIndex.Policy policy : WaitlistIndex.Policy.values()) {
+            Vehicle v = new Vehicle();
+            WaitlistIndex queue = queueOf(EARLY, LATE, new WaitingList("MTLU1004", 20, 21));
+
+            assertEquals(3, queue.drain(policy, v::offer), policy.name());
+            assertEquals(0, queue.size(), policy.name());
+        }
+    }
+
+    @Test
+    void droppedRequestsLeaveWithoutBlocking() {
+        WaitlistIndex queue = queueOf(EARLY, LATE);
+        List<WaitingList> offered = new ArrayList<>();
+
+        int assigned = queue.drain(WaitlistIndex.Policy.STRICT_FIFO, w -> {
+            offered.add(w);
+            return w == EARLY ? WaitlistIndex.Outcome.DROPPED : WaitlistIndex.Outcome.ASSIGNED;
+        });
+        assertEquals(1, assigned);
+        assertEquals(List.of(EARLY, LATE), offered);
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    void aFailedOfferKeepsThatRequestAndTheRestQueued() {
+        WaitingList last = new WaitingList("MTLU1004", 20, 21);
+        WaitlistIndex queue = queueOf(EARLY, LATE, last);
+
+        assertThrows(IllegalStateException.class, () -> queue.drain(WaitlistIndex.Policy.OVERLAP_FIFO, w -> {
+            if (w == LATE) throw new IllegalStateException("offer failed");
+            return WaitlistIndex.Outcome.ASSIGNED;
+        }));
+        assertEquals(List.of(LATE, last), contents(queue));
+    }
+
+    @Test
+    void overlapFifoMatchesAPlainReplayOfTheRule() {
+        Random rnd = new Random(16);
+        for (int round = 0; round < 300; round++) {
+            Vehicle v = new Vehicle();
+            for (int b = rnd.nextInt(4); b > 0; b--) {
+                int s = rnd.nextInt(DAYS - 5);
+                if (v.free(s, s + 4)) v.book(s, s + 4);
+            }
+            List<WaitingList> requests = new ArrayList<>();
+            for (int i = rnd.nextInt(12); i >= 0; i--) {
+                int s = rnd.nextInt(DAYS - 8);
+                requests.add(new WaitingList("MTLU" + (2000 + i), s, s + rnd.nextInt(8)));
+            }
+
+            // the rule spelled out: offered unless an earlier request still waiting overlaps it
+            Vehicle expected = v.copy();
+            List<WaitingList> stillWaiting = new ArrayList<>();
+            for (WaitingList w : requests) {
+                boolean behind = stillWaiting.stream()
+                        .anyMatch(e -> e.startDay() <= w.endDay() && w.startDay() <= e.endDay());
+                if (behind || expected.offer(w) == WaitlistIndex.Outcome.NO_ROOM) stillWaiting.add(w);
+            }
+
+            WaitlistIndex queue = new WaitlistIndex();
+            requests.forEach(queue::add);
+            queue.drain(WaitlistIndex.Policy.OVERLAP_FIFO, v::offer);
+
+            assertEquals(stillWaiting, contents(queue), "round " + round);
+            assertEquals(expected.offered, v.offered, "round " + round);
+        }
+    }
+
+    private static WaitlistIndex queueOf(WaitingList... ws) {
+        WaitlistIndex queue = new WaitlistIndex();
+        for (WaitingList w : ws) queue.add(w);
+        return queue;
+    }
+
+    private static List<WaitingList> contents(WaitlistIndex queue) {
+        List<WaitingList> out = new ArrayList<>();
+        queue.forEach(out::add);
+        return out;
+    }
+
+    // one unit, booked day by day; remembers what it was offered
+    private static final class Vehicle {
+        final boolean[] booked = new boolean[DAYS];
+        final List<WaitingList> offered = new ArrayList<>();
+
+        boolean free(int s, int e) {
+            for (int d = s; d <= e; d++) if (booked[d]) return false;
+            return true;
+        }
+
+        void book(int s, int e) {
+            for (int d = s; d <= e; d++) booked[d] = true;
+        }
+
+        WaitlistIndex.Outcome offer(WaitingList w) {
+            offered.add(w);
+            if (!free(w.startDay(), w.endDay())) return WaitlistIndex.Outcome.NO_ROOM;
+            book(w.startDay(), w.endDay());
+            return WaitlistIndex.Outcome.ASSIGNED;
+        }
+
+        Vehicle copy() {
+            Vehicle c = new Vehicle();
+            System.arraycopy(booked, 0, c.booked, 0, DAYS);
+            return c;
+        }
+    }
+}
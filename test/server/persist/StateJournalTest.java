@@ -0,0 +1,194 @@
+package server.persist;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Each test journals a fresh office under dvrms.dataDir and recovers it into a new journal,
+// the way an office restarts
+class StateJournalTest {
+    private String office;
+    private Path dir;
+
+    @BeforeEach
+    void freshOffice(TestInfo info) throws IOException {
+        office = "T" + info.getTestMethod().orElseThrow().getName();
+        dir = Path.of(System.getProperty("dvrms.dataDir", "data"), office);
+        if (Files.exists(dir)) {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(p);
+            }
+        }
+    }
+
+    @Test
+    void replaysTheLogInOrder() throws IOException {
+        StateJournal journal = started(new Recorder());
+        List<String> written = writeSome(journal, "MTL1001");
+
+        assertEquals(written, recovered().calls);
+    }
+
+    @Test
+    void snapshotReplacesTheLogBeforeIt() throws IOException {
+        Recorder state = new Recorder();
+        StateJournal journal = started(state);
+        List<String> before = writeSome(journal, "MTL1001");
+        // what the office would dump: its state after those records
+        state.calls.addAll(before);
+
+        journal.snapshot();
+        List<String> after = writeSome(journal, "MTL1002");
+
+        List<String> expected = new ArrayList<>(before);
+        expected.addAll(after);
+        assertEquals(expected, recovered().calls);
+        assertEquals(1, files("snapshot-").size());
+        assertEquals(1, files("wal-").size(), "segments before the snapshot are deleted");
+    }
+
+    @Test
+    void recoveryStopsAtATornRecord() throws IOException {
+        StateJournal journal = started(new Recorder());
+        List<String> written = writeSome(journal, "MTL1001");
+
+        Path wal = files("wal-").get(0);
+        try (FileChannel ch = FileChannel.open(wal, StandardOpenOption.WRITE)) {
+            ch.truncate(ch.size() - 3); // the last record loses its tail, as in a crash mid-write
+        }
+
+        assertEquals(written.subList(0, written.size() - 1), recovered().calls);
+    }
+
+    @Test
+    void restartAfterRecoveryKeepsAppending() throws IOException {
+        StateJournal first = started(new Recorder());
+        List<String> expected = new ArrayList<>(writeSome(first, "MTL1001"));
+
+        Recorder replayed = new Recorder();
+        StateJournal second = StateJournal.open(office);
+        second.recover(replayed);
+        second.start(replayed::replayInto);
+        expected.addAll(writeSome(second, "MTL1002"));
+
+        assertEquals(expected, recovered().calls);
+    }
+
+    private StateJournal started(Recorder state) throws IOException {
+        StateJournal journal = StateJournal.open(office);
+        assertTrue(journal.isEnabled(), "dvrms.persist must not be false for this test");
+        journal.recover(new Recorder());
+        journal.start(state::replayInto);
+        return journal;
+    }
+
+    private Recorder recovered() throws IOException {
+        Recorder r = new Recorder();
+        StateJournal.open(office).recover(r);
+        return r;
+    }
+
+    // one record of every kind, inside one enter()/exit() so they are on disk when this returns
+    private static List<String> writeSome(StateJournal j, String vehicle) {
+        Recorder expected = new Recorder();
+        for (StateChanges target : List.of(j, expected)) {
+            boolean journal = target == j;
+            if (journal) j.enter();
+            try {
+                target.putVehicle(vehicle, "Sedan", 2, 120.5);
+                target.reserve(vehicle, "MTLU1111", 20_000, 20_003);
+                target.budget("MTLU1111", -48_200);
+                target.waitlistAdd(vehicle, "MTLU2222", 20_001, 20_002);
+                target.remoteOffice("WPGU3333", "MTL", true);
+                target.waitlistRemove(vehicle, "MTLU2222", 20_001, 20_002);
+                target.cancel(vehicle, "MTLU1111", 20_000, 20_003);
+                target.remoteOffice("WPGU3333", "MTL", false);
+                target.removeVehicle(vehicle);
+            } finally {
+                if (journal) j.exit();
+            }
+        }
+        return expected.calls;
+    }
+
+    private List<Path> files(String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().startsWith(prefix)).sorted().toList();
+        }
+    }
+
+    // remembers every change as text, in order
+    private static final class Recorder implements StateChanges {
+        final List<String> calls = new ArrayList<>();
+
+        void replayInto(StateChanges out) {
+            for (String c : calls) {
+                String[] f = c.split(" ");
+                switch (f[0]) {
+                    case "putVehicle" -> out.putVehicle(f[1], f[2], Integer.parseInt(f[3]), Double.parseDouble(f[4]));
+                    case "removeVehicle" -> out.removeVehicle(f[1]);
+                    case "reserve" -> out.reserve(f[1], f[2], Integer.parseInt(f[3]), Integer.parseInt(f[4]));
+                    case "cancel" -> out.cancel(f[1], f[2], Integer.parseInt(f[3]), Integer.parseInt(f[4]));
+                    case "waitlistAdd" -> out.waitlistAdd(f[1], f[2], Integer.parseInt(f[3]), Integer.parseInt(f[4]));
+                    case "waitlistRemove" -> out.waitlistRemove(f[1], f[2], Integer.parseInt(f[3]), Integer.parseInt(f[4]));
+                    case "budget" -> out.budget(f[1], Long.parseLong(f[2]));
+                    case "remoteOffice" -> out.remoteOffice(f[1], f[2], Boolean.parseBoolean(f[3]));
+                    default -> throw new IllegalStateException(c);
+                }
+            }
+        }
+
+        @Override
+        public void putVehicle(String vehicleID, String vehicleType, int vehicleNumber, double price) {
+            calls.add("putVehicle " + vehicleID + " " + vehicleType + " " + vehicleNumber + " " + price);
+        }
+
+        @Override
+        public void removeVehicle(String vehicleID) {
+            calls.add("removeVehicle " + vehicleID);
+        }
+
+        @Override
+        public void reserve(String vehicleID, String customerID, int startDay, int endDay) {
+            calls.add("reserve " + vehicleID + " " + customerID + " " + startDay + " " + endDay);
+        }
+
+        @Override
+        public void cancel(String vehicleID, String customerID, int startDay, int endDay) {
+            calls.add("cancel " + vehicleID + " " + customerID + " " + startDay + " " + endDay);
+        }
+
+        @Override
+        public void waitlistAdd(String vehicleID, String customerID, int startDay, int endDay) {
+            calls.add("waitlistAdd " + vehicleID + " " + customerID + " " + startDay + " " + endDay);
+        }
+
+        @Override
+        public void waitlistRemove(String vehicleID, String customerID, int startDay, int endDay) {
+            calls.add("waitlistRemove " + vehicleID + " " + customerID + " " + startDay + " " + endDay);
+        }
+
+        @Override
+        public void budget(String customerID, long deltaCents) {
+            calls.add("budget " + customerID + " " + deltaCents);
+        }
+
+        @Override
+        public void remoteOffice(String customerID, String office, boolean held) {
+            calls.add("remoteOffice " + customerID + " " + office + " " + held);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package server.update;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// REG customers asking SAS, whose announcements must drop REG's cached answer long before the TTL
+class findCacheTest {
+    private static final String MANAGER = "SASM1111";
+
+    private static testOffices offices;
+    private static officeServer reg;
+    private static officeServer sas;
+
+    @BeforeAll
+    static void startOffices() throws IOException {
+        offices = new testOffices("REG", "SAS");
+        reg = offices.get("REG");
+        sas = offices.get("SAS");
+    }
+
+    @AfterAll
+    static void stopOffices() throws RemoteException {
+        offices.close();
+    }
+
+    @Test
+    void aNewerVersionDropsTheEntry() {
+        findCache cache = new findCache();
+        cache.put("SAS", "sedan", cache.version("SAS", "sedan"), "SAS1001 Sedan Available 100.0");
+        assertEquals("SAS1001 Sedan Available 100.0", cache.get("SAS", "sedan"));
+
+        cache.invalidate("SAS", "sedan", 1);
+        assertNull(cache.get("SAS", "sedan"));
+    }
+
+    @Test
+    void lateOrRepeatedAnnouncementsAreIgnored() {
+        findCache cache = new findCache();
+        cache.invalidate("SAS", "sedan", 2);
+        cache.put("SAS", "sedan", cache.version("SAS", "sedan"), "answer");
+
+        cache.invalidate("SAS", "sedan", 2);
+        cache.invalidate("SAS", "sedan", 1);
+        assertEquals("answer", cache.get("SAS", "sedan"));
+        cache.invalidate("SAS", "suv", 3);
+        assertEquals("answer", cache.get("SAS", "sedan"), "other types keep their entries");
+    }
+
+    @Test
+    void anAnswerAskedForBeforeAnAnnouncementIsNotKept() {
+        findCache cache = new findCache();
+        long version = cache.version("SAS", "sedan");
+        cache.invalidate("SAS", "sedan", 1); // arrives while the FIND is in flight
+        cache.put("SAS", "sedan", version, "stale answer");
+
+        assertNull(cache.get("SAS", "sedan"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void inventoryChangesReachTheAskingOffice() throws Exception {
+        sas.addVehicle(MANAGER, 1, "Sedan", "SAS1001", 100);
+        String first = reg.findVehicle("REGU1111", "Sedan");
+        assertTrue(first.contains("SAS1001"), first);
+        assertFalse(first.contains("SAS1002"), first);
+
+        // each change is announced; REG must not keep answering from its 30 s cache
+        sas.addVehicle(MANAGER, 1, "Sedan", "SAS1002", 100);
+        assertTrue(eventuallyFinds("SAS1002 Sedan Available"), "added vehicle listed");
+
+        sas.addVehicle(MANAGER, 0, "Sedan", "SAS1001", 150);
+        assertTrue(eventuallyFinds("SAS1001 Sedan Available 150.0"), "new price listed");
+
+        sas.removeVehicle(MANAGER, "SAS1002");
+        assertTrue(eventuallyFinds(null), "removed vehicle gone");
+    }
+
+    // polls REG well within the cache TTL until the answer shows the line, or no longer shows SAS1002 when null
+    private static boolean eventuallyFinds(String line) throws Exception {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (System.nanoTime() < deadline) {
+            String found = reg.findVehicle("REGU1111", "Sedan");
+            if (line == null ? !found.contains("SAS1002") : found.contains(line)) return true;
+            Thread.sleep(20);
+        }
+        return false;
+    }
+}
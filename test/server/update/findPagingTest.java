@@ -0,0 +1,65 @@
+package server.update;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import server.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// VAN has more Sedans than fit in one datagram; FIND hands them out page by page
+class findPagingTest {
+    private static final int VEHICLES = 150;
+
+    private static testOffices offices;
+    private static udpClient peer;
+    private static final List<String> ids = new ArrayList<>();
+
+    @BeforeAll
+    static void startOffices() throws IOException {
+        offices = new testOffices("WIN", "VAN");
+        for (int i = 0; i < VEHICLES; i++) {
+            String id = "VAN" + (1000 + i);
+            offices.get("VAN").addVehicle("VANM1111", 1, "Sedan", id, 100);
+            ids.add(id);
+        }
+        peer = new udpClient("PEE", off -> offices.udpAddress(off), new Metrics("PEE"));
+    }
+
+    @AfterAll
+    static void stopOffices() throws RemoteException {
+        offices.close();
+    }
+
+    @Test
+    void continuationTokensLeadToTheLastPage() throws Exception {
+        List<String> listed = new ArrayList<>();
+        int pages = 0;
+        String after = "";
+        do {
+            wireCodec.Reply r = peer.request("VAN", new wireCodec.Find("Sedan", after)).get(5, TimeUnit.SECONDS);
+            assertEquals(wireCodec.Status.OK, r.status(), r.text());
+            assertTrue(r.text().getBytes(StandardCharsets.UTF_8).length <= wireCodec.MAX_PAYLOAD, "page " + pages);
+            r.text().lines().forEach(l -> listed.add(l.substring(0, l.indexOf(' '))));
+            pages++;
+            after = r.next();
+        } while (!after.isEmpty());
+
+        assertTrue(pages > 1, "one page only: " + pages);
+        assertEquals(ids, listed, "every vehicle once, in ID order");
+    }
+
+    @Test
+    void aCustomerElsewhereSeesEveryPage() throws RemoteException {
+        String found = offices.get("WIN").findVehicle("WINU1111", "Sedan");
+        for (String id : ids) assertTrue(found.contains(id + " Sedan Available"), id);
+    }
+}
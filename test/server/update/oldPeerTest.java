@@ -0,0 +1,51 @@
+package server.update;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import server.metrics.Metrics;
+import server.model.Reservation;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// An office from before two-phase booking, played by a bare udpClient, asking HAL for a seat
+class oldPeerTest {
+    private static final int START = Reservation.parseDay("01042026");
+    private static final int END = Reservation.parseDay("02042026");
+
+    private static testOffices offices;
+    private static udpClient old;
+
+    @BeforeAll
+    static void startOffice() throws IOException {
+        offices = new testOffices("HAL");
+        offices.get("HAL").addVehicle("HALM1111", 1, "Sedan", "HAL1001", 100);
+        old = new udpClient("OLD", off -> offices.udpAddress(off), new Metrics("OLD"));
+    }
+
+    @AfterAll
+    static void stopOffice() throws RemoteException {
+        offices.close();
+    }
+
+    @Test
+    void oneStepReserveIsAnsweredWithUpgradeRequired() throws Exception {
+        wireCodec.Reserve item = new wireCodec.Reserve("OLDU1111", "HAL1001", START, END, false);
+
+        wireCodec.Reply r = old.request("HAL", item).get(5, TimeUnit.SECONDS);
+        assertEquals(wireCodec.Status.ERROR, r.status());
+        assertTrue(r.text().startsWith(officeServer.UPGRADE_REQUIRED_TEXT), r.text());
+
+        List<wireCodec.Reply> batch = old.requestBatch("HAL", new wireCodec.ReserveBatch("OLDU1111", List.of(item)), 1)
+                .get(5, TimeUnit.SECONDS);
+        assertTrue(batch.get(0).text().startsWith(officeServer.UPGRADE_REQUIRED_TEXT), batch.get(0).text());
+
+        assertEquals("", offices.get("HAL").listReservationsLocalOnly("OLDU1111"), "nothing is booked");
+    }
+}
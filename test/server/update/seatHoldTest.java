@@ -0,0 +1,112 @@
+package server.update;
+
+import common.Topology;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import server.model.Reservation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+// The vehicle's side of a cross-office booking: PREPARE holds a seat for dvrms.txn.holdMillis
+// (short under the test build), COMMIT keeps it, and a hold nobody commits is given back.
+// The tests share one office, so each books its own vehicle for its own customers.
+class seatHoldTest {
+    private static final String MANAGER = "MTLM1111";
+    private static final int START = Reservation.parseDay("01022026");
+    private static final int END = Reservation.parseDay("05022026");
+    private static final long WAIT_MILLIS = 5_000;
+
+    private static officeServer mtl;
+
+    @BeforeAll
+    static void startOffice() throws IOException {
+        Path data = Path.of(System.getProperty("dvrms.dataDir", "data"), "MTL");
+        if (Files.exists(data)) {
+            try (Stream<Path> files = Files.walk(data)) {
+                for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(p);
+            }
+        }
+
+        // UDP on any free port; nothing here talks to WPG
+        Properties p = new Properties();
+        p.setProperty("offices", "MTL,WPG");
+        p.setProperty("MTL.udpPort", "0");
+        p.setProperty("WPG.udpPort", "0");
+        mtl = new officeServer("MTL", Topology.from(p));
+    }
+
+    @AfterAll
+    static void stopOffice() throws RemoteException {
+        UnicastRemoteObject.unexportObject(mtl, true);
+    }
+
+    @Test
+    void heldSeatCountsAgainstCapacityUntilItExpires() throws RemoteException {
+        mtl.addVehicle(MANAGER, 1, "Sedan", "MTL1001", 100);
+
+        wireCodec.Reply held = mtl.prepareSeat("WPG-1", seat("WPGU5555", "MTL1001"));
+        assertTrue(held.ok(), held.text());
+        assertEquals(10_000, held.cents());
+        assertFalse(mtl.prepareSeat("WPG-2", seat("WPGU6666", "MTL1001")).ok(), "the held seat is taken");
+
+        awaitNoReservation("WPGU5555");
+        assertTrue(mtl.prepareSeat("WPG-3", seat("WPGU6666", "MTL1001")).ok(), "the expired seat is free again");
+
+        wireCodec.Reply late = mtl.commitSeat("WPG-1", seat("WPGU5555", "MTL1001"));
+        assertFalse(late.ok());
+        assertTrue(late.text().contains("expired"), late.text());
+    }
+
+    @Test
+    void committedSeatOutlivesTheHold() throws Exception {
+        mtl.addVehicle(MANAGER, 1, "Sedan", "MTL1002", 100);
+
+        assertTrue(mtl.prepareSeat("WPG-11", seat("WPGU1111", "MTL1002")).ok());
+        assertTrue(mtl.commitSeat("WPG-11", seat("WPGU1111", "MTL1002")).ok());
+
+        Thread.sleep(3 * Long.getLong("dvrms.txn.holdMillis", 10_000));
+        assertTrue(mtl.listReservationsLocalOnly("WPGU1111").contains("MTL1002"));
+        assertFalse(mtl.prepareSeat("WPG-12", seat("WPGU2222", "MTL1002")).ok(), "the committed seat stays taken");
+        assertTrue(mtl.commitSeat("WPG-11", seat("WPGU1111", "MTL1002")).ok(), "a repeated COMMIT is answered again");
+    }
+
+    @Test
+    void preparingTwiceHoldsOneSeat() throws RemoteException {
+        mtl.addVehicle(MANAGER, 2, "Sedan", "MTL1003", 100);
+
+        assertTrue(mtl.prepareSeat("WPG-21", seat("WPGU3333", "MTL1003")).ok());
+        assertTrue(mtl.prepareSeat("WPG-21", seat("WPGU3333", "MTL1003")).ok(), "a repeated PREPARE is answered again");
+        assertTrue(mtl.prepareSeat("WPG-22", seat("WPGU4444", "MTL1003")).ok(), "the second seat is still free");
+        assertEquals(1, mtl.listReservationsLocalOnly("WPGU3333").lines().count());
+    }
+
+    private static wireCodec.Reserve seat(String customerID, String vehicleID) {
+        return new wireCodec.Reserve(customerID, vehicleID, START, END, false);
+    }
+
+    private static void awaitNoReservation(String customerID) {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (!mtl.listReservationsLocalOnly(customerID).isEmpty()) {
+            if (System.currentTimeMillis() > deadline) fail("the hold of " + customerID + " did not expire");
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package server.update;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import server.model.Reservation;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Swaps from a reservation at another office: QUE customers, OTT vehicles. Each test uses its own
+// customer and vehicles.
+class swapReservationTest {
+    private static final String MANAGER = "OTTM1111";
+    private static final int START = Reservation.parseDay("01032026");
+    private static final int END = Reservation.parseDay("03032026");
+
+    private static testOffices offices;
+    private static officeServer que;
+    private static officeServer ott;
+
+    @BeforeAll
+    static void startOffices() throws IOException {
+        offices = new testOffices("QUE", "OTT");
+        que = offices.get("QUE");
+        ott = offices.get("OTT");
+    }
+
+    @AfterAll
+    static void stopOffices() throws RemoteException {
+        offices.close();
+    }
+
+    @Test
+    void movesWithinTheRemoteOffice() throws RemoteException {
+        addVehicles("OTT1001", "OTT1002");
+        assertTrue(que.reserveVehicle("QUEU1111", "OTT1001", "01032026", "03032026", false).startsWith("SUCCESS|"));
+        String budget = que.getBudget("QUEU1111");
+
+        String moved = que.swapReservation("QUEU1111", "OTT1001", "OTT1002", "01032026", "03032026");
+        assertTrue(moved.startsWith("SUCCESS|"), moved);
+        assertEquals("OTT1002", bookedAtOtt("QUEU1111"));
+        assertEquals(budget, que.getBudget("QUEU1111"), "same price, nothing changes hands");
+    }
+
+    @Test
+    void refusesAnOldVehicleTheCustomerDoesNotHold() throws RemoteException {
+        addVehicles("OTT2001", "OTT2002");
+        assertTrue(que.reserveVehicle("QUEU2222", "OTT2001", "01032026", "03032026", false).startsWith("SUCCESS|"));
+        String budget = que.getBudget("QUEU2222");
+
+        // the customer holds OTT2001, not OTT2999: nothing may be booked
+        String moved = que.swapReservation("QUEU2222", "OTT2999", "OTT2002", "01032026", "03032026");
+        assertFalse(moved.startsWith("SUCCESS|"), moved);
+        assertEquals("OTT2001", bookedAtOtt("QUEU2222"));
+        assertEquals(budget, que.getBudget("QUEU2222"));
+    }
+
+    @Test
+    void undoesTheNewBookingWhenTheOldOneCannotBeCancelled() throws RemoteException {
+        addVehicles("OTT3001", "OTT3002", "OTT3003");
+        assertTrue(que.reserveVehicle("QUEU3333", "OTT3001", "01032026", "03032026", false).startsWith("SUCCESS|"));
+        // a booking of the customer still in flight: held at OTT, not committed, so it cannot be cancelled yet
+        assertTrue(ott.prepareSeat("QUE-99", new wireCodec.Reserve("QUEU3333", "OTT3002", START, END, false)).ok());
+        String budget = que.getBudget("QUEU3333");
+
+        String moved = que.swapReservation("QUEU3333", "OTT3002", "OTT3003", "01032026", "03032026");
+        assertTrue(moved.startsWith("FAIL|"), moved);
+        assertFalse(ott.listReservationsLocalOnly("QUEU3333").contains("OTT3003"), "the new booking is cancelled");
+        assertEquals(budget, que.getBudget("QUEU3333"), "and refunded");
+        assertTrue(que.swapReservation("QUEU3333", "OTT3001", "OTT3003", "01032026", "03032026").startsWith("SUCCESS|"),
+                "the customer keeps the slot at OTT");
+    }
+
+    @Test
+    void vehicleIDsDifferingInCaseAreDifferentVehicles() throws RemoteException {
+        addVehicles("OTT4001");
+        assertTrue(que.reserveVehicle("QUEU4444", "OTT4001", "01032026", "03032026", false).startsWith("SUCCESS|"));
+
+        // no vehicle ott4001: not an update of OTT4001 in place
+        String moved = que.swapReservation("QUEU4444", "OTT4001", "ott4001", "05032026", "06032026");
+        assertFalse(moved.startsWith("SUCCESS|"), moved);
+        assertTrue(ott.listReservationsLocalOnly("QUEU4444").startsWith("OTT4001 01032026 03032026"),
+                ott.listReservationsLocalOnly("QUEU4444"));
+    }
+
+    private static void addVehicles(String... vehicleIDs) throws RemoteException {
+        for (String id : vehicleIDs) ott.addVehicle(MANAGER, 1, "Sedan", id, 100);
+    }
+
+    // the vehicles booked at OTT by the customer, committed ones only, space separated
+    private static String bookedAtOtt(String customerID) {
+        StringBuilder sb = new StringBuilder();
+        ott.listReservationsLocalOnly(customerID).lines()
+                .forEach(l -> sb.append(sb.isEmpty() ? "" : " ").append(l, 0, l.indexOf(' ')));
+        return sb.toString();
+    }
+}
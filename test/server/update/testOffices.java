@@ -0,0 +1,55 @@
+package server.update;
+
+import common.Topology;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.rmi.NoSuchObjectException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+// Offices of one JVM talking over UDP on free local ports, with empty journals, for tests that go
+// through the inter-office protocol. Each test class should use its own office codes: journals and ports are per code.
+final class testOffices implements AutoCloseable {
+    private final Map<String, officeServer> offices = new LinkedHashMap<>();
+    private final Topology topology;
+
+    testOffices(String... codes) throws IOException {
+        Properties p = new Properties();
+        p.setProperty("offices", String.join(",", codes));
+        for (String code : codes) {
+            try (DatagramSocket probe = new DatagramSocket(0)) {
+                p.setProperty(code + ".udpPort", String.valueOf(probe.getLocalPort()));
+            }
+            Path data = Path.of(System.getProperty("dvrms.dataDir", "data"), code);
+            if (Files.exists(data)) {
+                try (Stream<Path> files = Files.walk(data)) {
+                    for (Path f : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(f);
+                }
+            }
+        }
+        topology = Topology.from(p);
+        for (String code : codes) offices.put(code, new officeServer(code, topology));
+    }
+
+    officeServer get(String code) {
+        return offices.get(code);
+    }
+
+    // where the office takes inter-office requests, for tests that play another office
+    InetSocketAddress udpAddress(String code) {
+        return topology.office(code).udpAddress();
+    }
+
+    @Override
+    public void close() throws NoSuchObjectException {
+        for (officeServer o : offices.values()) UnicastRemoteObject.unexportObject(o, true);
+    }
+}
@@ -0,0 +1,27 @@
+package server.update;
+
+import org.junit.jupiter.api.Test;
+import server.metrics.Metrics;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class udpClientTest {
+
+    @Test
+    void requestTooBigToEncodeFailsAtOnce() throws IOException {
+        // nothing listens there; the request must fail before anything is sent
+        udpClient client = new udpClient("TST", off -> new InetSocketAddress("localhost", 9), new Metrics("TST"));
+        wireCodec.Find huge = new wireCodec.Find("S".repeat(8_000), "");
+
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> client.request("XYZ", huge).get(1, TimeUnit.SECONDS));
+        assertInstanceOf(BufferOverflowException.class, e.getCause());
+    }
+}
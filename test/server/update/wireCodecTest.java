@@ -0,0 +1,142 @@
+package server.update;
+
+import org.junit.jupiter.api.Test;
+import server.model.Reservation;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class wireCodecTest {
+    private static final int START = Reservation.parseDay("01022026");
+    private static final int END = Reservation.parseDay("05022026");
+
+    private static final wireCodec.Reserve ITEM =
+            new wireCodec.Reserve("MTLU1111", "WPG2001", START, END, true);
+    private static final wireCodec.ReserveBatch BATCH = new wireCodec.ReserveBatch("MTLU1111", List.of(
+            new wireCodec.Reserve("MTLU1111", "WPG2001", START, END, true),
+            new wireCodec.Reserve("MTLU1111", "WPG2002", START + 1, END + 3, false)));
+
+    // one message per opcode; text replies carry the status their text implies, as handlers produce them
+    private static final List<Object> ALL = List.of(
+            new wireCodec.Find("Sedan", "WPG2001"),
+            ITEM,
+            new wireCodec.Cancel("MTLU1111", "WPG2001"),
+            BATCH,
+            new wireCodec.CancelBatch("MTLU1111", List.of("WPG2001", "WPG2002")),
+            new wireCodec.ListReservations("MTLU1111"),
+            new wireCodec.Available("SUV", START, END, "BNF3004"),
+            new wireCodec.Invalidate("MTL", "Sedan", 42),
+            new wireCodec.Prepare("MTL-7", ITEM),
+            new wireCodec.PrepareBatch("MTL-8", BATCH),
+            new wireCodec.Commit("MTL-7", ITEM),
+            new wireCodec.Abort("MTL-8"),
+            new wireCodec.Confirm("WPG-3", "MTLU1111", "WPG2001", 48_250),
+            new wireCodec.Refund("MTLU1111", "WPG2001", 48_250),
+            new wireCodec.Update("MTLU1111", "WPG2001", START + 2, END + 2),
+            new wireCodec.BatchReply(List.of(
+                    new wireCodec.Reply(wireCodec.Status.OK, "SUCCESS|Reserved WPG2001."),
+                    new wireCodec.Reply(wireCodec.Status.FAIL, "FAIL|Not available."),
+                    new wireCodec.Reply(wireCodec.Status.BUSY, "ERR|Busy: retry."))),
+            new wireCodec.Reply(wireCodec.Status.OK, "WPG2001 Sedan 2 120.0", "WPG2001"));
+
+    @Test
+    void everyOpcodeHasASample() throws IllegalAccessException {
+        Set<Integer> declared = new TreeSet<>();
+        for (Field f : wireCodec.class.getDeclaredFields()) {
+            if (f.getName().startsWith("OP_") && Modifier.isStatic(f.getModifiers())) declared.add((int) f.getByte(null));
+        }
+        Set<Integer> sampled = new TreeSet<>();
+        for (Object body : ALL) sampled.add((int) encoded(7, body).get(2));
+
+        assertEquals(17, declared.size());
+        assertEquals(declared, sampled);
+    }
+
+    @Test
+    void binaryRoundTrip() {
+        long id = 1L << 40;
+        for (Object body : ALL) {
+            ByteBuffer buf = encoded(id, body);
+            assertTrue(wireCodec.isBinary(buf));
+
+            wireCodec.Frame frame = wireCodec.decode(buf);
+            assertEquals(id, frame.requestId());
+            assertEquals(body, frame.body());
+            assertEquals(0, buf.remaining(), "trailing bytes after " + body);
+            id++;
+        }
+    }
+
+    @Test
+    void textRoundTrip() {
+        long id = 9;
+        for (Object body : ALL) {
+            boolean isReply = body instanceof wireCodec.Reply || body instanceof wireCodec.BatchReply;
+            String text = wireCodec.toText(id, body);
+
+            wireCodec.Frame frame = wireCodec.fromText(text, isReply);
+            assertEquals(id, frame.requestId(), text);
+            assertEquals(body, frame.body(), text);
+            id++;
+        }
+    }
+
+    @Test
+    void untaggedTextHasNoRequestId() {
+        wireCodec.Frame frame = wireCodec.fromText(wireCodec.toText(-1, ITEM), false);
+        assertEquals(-1, frame.requestId());
+        assertEquals(ITEM, frame.body());
+    }
+
+    @Test
+    void textFindWithoutAfterAsksForEverything() {
+        wireCodec.Find find = new wireCodec.Find("Sedan", null);
+        assertEquals(find, wireCodec.fromText(wireCodec.toText(1, find), false).body());
+    }
+
+    @Test
+    void nonAsciiStringsSurviveBothFormats() {
+        wireCodec.Reply reply = new wireCodec.Reply(wireCodec.Status.FAIL, "FAIL|Véhicule réservé — déjà pris.");
+        assertEquals(reply, wireCodec.decode(encoded(1, reply)).body());
+        assertEquals(reply, wireCodec.fromText(wireCodec.toText(1, reply), true).body());
+    }
+
+    @Test
+    void settledReplyCarriesItsAmount() {
+        wireCodec.Reply r = wireCodec.Reply.settled(48_250, "SUCCESS|Reserved WPG2001.");
+        assertEquals(48_250, r.cents());
+        assertEquals("SUCCESS|Reserved WPG2001.", r.message());
+
+        wireCodec.Reply back = (wireCodec.Reply) wireCodec.decode(encoded(1, r)).body();
+        assertEquals(48_250, back.cents());
+        assertEquals(0, new wireCodec.Reply(wireCodec.Status.OK, "SUCCESS|Reserved.").cents());
+    }
+
+    @Test
+    void messageTooBigForTheBufferOverflows() {
+        ByteBuffer small = ByteBuffer.allocate(16);
+        assertThrows(BufferOverflowException.class, () -> wireCodec.encode(1, BATCH, small));
+    }
+
+    @Test
+    void unknownVersionIsRejected() {
+        ByteBuffer buf = encoded(1, ITEM);
+        buf.put(1, (byte) (wireCodec.VERSION + 1));
+        assertThrows(IllegalArgumentException.class, () -> wireCodec.decode(buf));
+    }
+
+    private static ByteBuffer encoded(long id, Object body) {
+        ByteBuffer buf = ByteBuffer.allocate(wireCodec.MAX_PAYLOAD);
+        wireCodec.encode(id, body, buf);
+        return buf.flip();
+    }
+}